@@ -17,23 +17,33 @@ package io.fabric8.jenkins.openshiftsync;
 
 import static java.net.HttpURLConnection.HTTP_GONE;
 
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesResourceList;
+import io.fabric8.kubernetes.api.model.ListMeta;
 import io.fabric8.kubernetes.api.model.Pod;
 import io.fabric8.kubernetes.client.KubernetesClientException;
 import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher.Action;
+import io.fabric8.kubernetes.client.dsl.Listable;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.csanchez.jenkins.plugins.kubernetes.PodTemplate;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.Util;
 import jenkins.util.Timer;
 
 public abstract class BaseWatcher {
@@ -42,6 +52,13 @@ public abstract class BaseWatcher {
     protected ScheduledFuture relister;
     protected final String[] namespaces;
     protected ConcurrentHashMap<String, Watch> watches;
+    // local copy (see toCached) of the objects seen by list and watch, per
+    // namespace; used so that a relist or a replayed watch event only reaches
+    // the handlers when something actually changed
+    protected final ResourceCache<HasMetadata> cache = new ResourceCache<HasMetadata>();
+    // per namespace, the watch events not handled yet; used to checkpoint
+    // the resource version up to which everything has been handled
+    private final ConcurrentHashMap<String, Progress> progress = new ConcurrentHashMap<String, Progress>();
     protected static ConcurrentHashMap<String, List<PodTemplate>> trackedPodTemplates = new ConcurrentHashMap<String, List<PodTemplate>>();
     protected static ConcurrentHashMap<String, String> podTemplateToApiType = new ConcurrentHashMap<String, String>();
     protected static final String cmType = "ConfigMap";
@@ -95,6 +112,9 @@ public abstract class BaseWatcher {
             LOGGER.warning(e.toString());
 
             if (e.getStatus() != null && e.getStatus().getCode() == HTTP_GONE) {
+                // the checkpoint is older than what the server still has
+                // history for, only a full list can catch up
+                WatchCheckpoints.remove(getCheckpointType(), namespace);
                 stop();
                 start();
             }
@@ -106,6 +126,373 @@ public abstract class BaseWatcher {
         watches.remove(namespace);
     }
 
+    /**
+     * Entry point for watch events; applies the delta to the local cache and
+     * only passes the event on if it is an actual add, update or delete. The
+     * handler runs on the {@link EventDispatcher}, after any earlier events
+     * with the same {@link #dispatchKey(HasMetadata)}.
+     *
+     * @param action
+     *            the watch action
+     * @param resource
+     *            the object carried by the event
+     */
+    public void onWatchEvent(Action action, HasMetadata resource) {
+        switch (action) {
+        case ADDED:
+        case MODIFIED:
+            if (!cache.upsert(toCached(resource))) {
+                LOGGER.fine("Ignoring " + action + " event for unchanged " + resource.getKind() + " "
+                        + resource.getMetadata().getNamespace() + "/" + resource.getMetadata().getName());
+                recordResourceVersion(resource.getMetadata().getNamespace(),
+                        resource.getMetadata().getResourceVersion());
+                return;
+            }
+            break;
+        case DELETED:
+            cache.remove(resource);
+            break;
+        default:
+            break;
+        }
+        dispatch(action, resource);
+    }
+
+    /**
+     * Hands an event to the {@link EventDispatcher}; a MODIFIED event replaces
+     * a MODIFIED event of the same object which has not been handled yet, so
+     * the handler only sees the latest state.
+     *
+     * @param action
+     *            the watch action
+     * @param resource
+     *            the object carried by the event
+     */
+    protected void dispatch(final Action action, final HasMetadata resource) {
+        dispatch(action, resource, false);
+    }
+
+    /**
+     * Like {@link #dispatch(Action, HasMetadata)}, but never waits for room in
+     * the {@link EventDispatcher}; for events which do not come from the watch
+     * thread, such as the deletes found by a relist on the Jenkins timer.
+     *
+     * @param action
+     *            the watch action
+     * @param resource
+     *            the object carried by the event
+     */
+    protected void dispatchAsync(final Action action, final HasMetadata resource) {
+        dispatch(action, resource, true);
+    }
+
+    private void dispatch(final Action action, final HasMetadata resource, boolean async) {
+        // counted right away, so the checkpoint cannot move past an event
+        // still on its way to the dispatcher
+        final Progress namespaceProgress = getProgress(resource.getMetadata().getNamespace());
+        namespaceProgress.received(resource.getMetadata().getResourceVersion());
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                boolean succeeded = false;
+                try {
+                    eventReceived(action, resource);
+                    succeeded = true;
+                } finally {
+                    if (!succeeded) {
+                        // retried by the next full list of the namespace
+                        cache.remove(toCached(resource));
+                    }
+                    namespaceProgress.handled(succeeded);
+                }
+            }
+        };
+        // it replaced a waiting event, which now accounts for it
+        Runnable onCoalesced = new Runnable() {
+            @Override
+            public void run() {
+                namespaceProgress.handled(true);
+            }
+        };
+        String key = dispatchKey(resource);
+        String uid = resource.getMetadata().getUid();
+        boolean supersedes = action == Action.MODIFIED;
+        if (async) {
+            EventDispatcher.get().dispatchAsync(key, uid, supersedes, task, onCoalesced);
+        } else if (!EventDispatcher.get().dispatch(key, uid, supersedes, task)) {
+            onCoalesced.run();
+        }
+    }
+
+    /**
+     * The copy of an object kept in {@link #cache}; watchers whose objects are
+     * large and never read back from the cache can keep just enough to tell
+     * whether a later event carries a change.
+     *
+     * @param resource
+     *            the object received from a list or watch
+     * @return the object itself unless overridden
+     */
+    protected HasMetadata toCached(HasMetadata resource) {
+        return resource;
+    }
+
+    /**
+     * The key ordering the events of an object: events with the same key are
+     * handled one after the other, in the order they were received.
+     *
+     * @param resource
+     *            the object carried by the event
+     * @return the UID of the object
+     */
+    protected String dispatchKey(HasMetadata resource) {
+        return resource.getMetadata().getUid();
+    }
+
+    /**
+     * Whether the watches of this type resume from the resource version
+     * checkpointed under JENKINS_HOME rather than listing the namespace again
+     * after a restart or a closed watch. Only watchers whose handled state
+     * survives a restart (jobs, credentials) should resume.
+     *
+     * @return false unless overridden
+     */
+    protected boolean resumesWatches() {
+        return false;
+    }
+
+    /**
+     * A digest of the configuration the objects of a namespace are synced
+     * under; a checkpoint recorded under a different digest is not resumed
+     * from.
+     *
+     * @param namespace
+     *            the namespace
+     * @return the digest
+     */
+    protected String getCheckpointDigest(String namespace) {
+        GlobalPluginConfiguration config = GlobalPluginConfiguration.get();
+        return Util.getDigestOf(config.getServer() + "\n" + getCheckpointType() + "\n" + namespace);
+    }
+
+    protected String getCheckpointType() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * The resource version to start the watch of a namespace from without
+     * listing it first
+     *
+     * @param namespace
+     *            the namespace about to be watched
+     * @return the checkpointed resource version, or null if the namespace has
+     *         to be listed
+     */
+    protected String getResumeVersion(String namespace) {
+        if (!resumesWatches()) {
+            return null;
+        }
+        return WatchCheckpoints.get(getCheckpointType(), namespace, getCheckpointDigest(namespace));
+    }
+
+    /**
+     * Called when opening the watch of a namespace failed; a watch refused
+     * because its resource version is too old drops the checkpoint so the
+     * next attempt lists the namespace
+     *
+     * @param namespace
+     *            the namespace
+     * @param e
+     *            the failure
+     */
+    protected void onWatchFailure(String namespace, Exception e) {
+        if (e instanceof KubernetesClientException && ((KubernetesClientException) e).getCode() == HTTP_GONE) {
+            WatchCheckpoints.remove(getCheckpointType(), namespace);
+        }
+    }
+
+    private Progress getProgress(String namespace) {
+        Progress p = progress.get(namespace);
+        if (p == null) {
+            Progress newProgress = new Progress(namespace);
+            p = progress.putIfAbsent(namespace, newProgress);
+            if (p == null) {
+                p = newProgress;
+            }
+        }
+        return p;
+    }
+
+    // records a resource version which needs no handling
+    private void recordResourceVersion(String namespace, String resourceVersion) {
+        Progress p = getProgress(namespace);
+        p.received(resourceVersion);
+        p.handled(true);
+    }
+
+    // the newest resource version received for a namespace is checkpointed
+    // whenever no event of the namespace is left to handle, as only then
+    // everything up to it has been handled; once an event failed, the
+    // checkpoint stays where it was until the namespace is listed again, so a
+    // restart replays the failed event
+    private final class Progress {
+        private final String namespace;
+        private int inFlight;
+        private String latestVersion;
+        private boolean failed;
+
+        private Progress(String namespace) {
+            this.namespace = namespace;
+        }
+
+        private synchronized void received(String resourceVersion) {
+            inFlight++;
+            if (resourceVersion != null) {
+                latestVersion = resourceVersion;
+            }
+        }
+
+        private synchronized void relisted() {
+            failed = false;
+        }
+
+        private synchronized void handled(boolean succeeded) {
+            inFlight--;
+            if (!succeeded) {
+                failed = true;
+            }
+            if (inFlight == 0 && !failed && latestVersion != null && resumesWatches()) {
+                WatchCheckpoints.put(getCheckpointType(), namespace, getCheckpointDigest(namespace), latestVersion);
+            }
+        }
+    }
+
+    /**
+     * The periodic timer only goes back to the API server for a namespace when
+     * there is no live watch for it (first run, or the watch was closed);
+     * otherwise the watch keeps the local cache current.
+     *
+     * @param namespace
+     *            the namespace about to be listed
+     * @return true if the namespace has to be (re)listed
+     */
+    protected boolean needsRelist(String namespace) {
+        return watches.get(namespace) == null;
+    }
+
+    /**
+     * Called by the periodic timer, instead of a relist, for a namespace with
+     * a live watch. Replays the cached objects to handlers whose effect can be
+     * lost or undone without any event arriving: a trigger which failed, or a
+     * job deleted in Jenkins. Does nothing unless overridden.
+     *
+     * @param namespace
+     *            the namespace being resynced
+     */
+    protected void resync(String namespace) {
+    }
+
+    /**
+     * Receives the new or changed objects of one page of a namespace list.
+     */
+    protected interface PageHandler<T extends HasMetadata> {
+        void onPage(List<T> items);
+    }
+
+    /**
+     * Lists a namespace in chunks of {@link GlobalPluginConfiguration#getListPageSize()}
+     * objects using limit/continue, reconciling each page with the local
+     * cache as it arrives so the full list is never held in memory.
+     *
+     * @param namespace
+     *            the namespace to list
+     * @param lister
+     *            the (namespaced, possibly filtered) list operation
+     * @param complete
+     *            true if the list covers every object the watcher tracks in
+     *            that namespace, in which case cached objects missing from it
+     *            are handled as deleted
+     * @param handler
+     *            called for every page with the objects which are new or
+     *            changed
+     * @return the resource version of the list, to start the watch from
+     * @throws KubernetesClientException
+     *             if a page could not be listed; no deletes are handled then
+     */
+    protected <T extends HasMetadata, L extends KubernetesResourceList<T>> String listNamespace(String namespace,
+            Listable<L> lister, boolean complete, final PageHandler<T> handler) {
+        if (complete) {
+            // the list hands every object whose event failed to the
+            // handlers again
+            getProgress(namespace).relisted();
+        }
+        final Set<String> listedUids = new HashSet<String>();
+        String resourceVersion = listPages(namespace, lister, new PageHandler<T>() {
+            @Override
+            public void onPage(List<T> items) {
+                List<T> changed = new ArrayList<T>();
+                for (T item : items) {
+                    listedUids.add(item.getMetadata().getUid());
+                    if (cache.upsert(toCached(item))) {
+                        changed.add(item);
+                    }
+                }
+                handler.onPage(changed);
+            }
+        });
+
+        if (complete) {
+            for (HasMetadata gone : cache.retainOnly(namespace, listedUids)) {
+                LOGGER.info("Relist of namespace " + namespace + " no longer includes " + gone.getKind() + " "
+                        + gone.getMetadata().getName() + "; handling it as deleted");
+                dispatchAsync(Action.DELETED, gone);
+            }
+            if (resourceVersion != null) {
+                recordResourceVersion(namespace, resourceVersion);
+            }
+        }
+        return resourceVersion;
+    }
+
+    /**
+     * Lists a namespace in chunks of {@link GlobalPluginConfiguration#getListPageSize()}
+     * objects using limit/continue, without touching any watcher's cache.
+     *
+     * @param namespace
+     *            the namespace to list
+     * @param lister
+     *            the (namespaced, possibly filtered) list operation
+     * @param handler
+     *            called for every page with all of its objects
+     * @return the resource version of the list
+     * @throws KubernetesClientException
+     *             if a page could not be listed
+     */
+    protected static <T extends HasMetadata, L extends KubernetesResourceList<T>> String listPages(String namespace,
+            Listable<L> lister, PageHandler<T> handler) {
+        int pageSize = GlobalPluginConfiguration.get().getListPageSize();
+        String resourceVersion = null;
+        String continueToken = null;
+        do {
+            L page = pageSize > 0 ? lister.list(pageSize, continueToken) : lister.list();
+            if (page == null) {
+                // without the rest of the list, absence from it says nothing
+                // about whether a cached object was deleted
+                throw new KubernetesClientException("List of namespace " + namespace
+                        + " returned no result" + (continueToken != null ? " for continue token " + continueToken : ""));
+            }
+            ListMeta listMeta = page.getMetadata();
+            if (resourceVersion == null && listMeta != null) {
+                // every page is served from the snapshot of the first one
+                resourceVersion = listMeta.getResourceVersion();
+            }
+            List<T> items = page.getItems();
+            handler.onPage(items != null ? items : Collections.<T> emptyList());
+            continueToken = pageSize > 0 && listMeta != null ? listMeta.getContinue() : null;
+        } while (StringUtils.isNotEmpty(continueToken));
+        return resourceVersion;
+    }
+
     public void addWatch(String key, Watch desiredWatch) {
         Watch watch = watches.putIfAbsent(key, desiredWatch);
         if (watch != null) {
@@ -115,8 +502,8 @@ public abstract class BaseWatcher {
 
     protected boolean hasSlaveLabelOrAnnotation(Map<String, String> map) {
         if (map != null)
-            return map.containsKey("role")
-                    && map.get("role").equals("jenkins-slave");
+            return map.containsKey(Constants.OPENSHIFT_LABELS_SLAVE_ROLE)
+                    && map.get(Constants.OPENSHIFT_LABELS_SLAVE_ROLE).equals(Constants.VALUE_SLAVE_ROLE);
         return false;
     }
 
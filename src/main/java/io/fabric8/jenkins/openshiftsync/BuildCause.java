@@ -41,6 +41,15 @@ public class BuildCause extends Cause {
 
     private long lastUpdateToOpenshift = -1;
 
+    // digest of the content last written to the Build, and when it was
+    // written, so identical updates can be skipped
+    private transient String lastPushedDigest;
+
+    private transient long lastPushedTime = -1;
+
+    // the BlueOcean URL of the run, which does not change once known
+    private transient String blueOceanRunUrl;
+
     public BuildCause(String uid, String namespace, String name, String gitUri,
             String commit, String buildConfigUid) {
         this.uid = uid;
@@ -147,4 +156,28 @@ public class BuildCause extends Cause {
         this.lastUpdateToOpenshift = lastUpdateToOpenshift;
     }
 
+    public String getLastPushedDigest() {
+        return lastPushedDigest;
+    }
+
+    public void setLastPushedDigest(String lastPushedDigest) {
+        this.lastPushedDigest = lastPushedDigest;
+    }
+
+    public long getLastPushedTime() {
+        return lastPushedTime;
+    }
+
+    public void setLastPushedTime(long lastPushedTime) {
+        this.lastPushedTime = lastPushedTime;
+    }
+
+    public String getBlueOceanRunUrl() {
+        return blueOceanRunUrl;
+    }
+
+    public void setBlueOceanRunUrl(String blueOceanRunUrl) {
+        this.blueOceanRunUrl = blueOceanRunUrl;
+    }
+
 }
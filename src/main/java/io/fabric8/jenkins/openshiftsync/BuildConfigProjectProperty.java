@@ -44,6 +44,9 @@ public class BuildConfigProjectProperty extends JobProperty<Job<?, ?>> {
 
     private String buildRunPolicy;
 
+    // when the job was last saved with this property, 0 if not since startup
+    private transient long savedAt;
+
     @DataBoundConstructor
     public BuildConfigProjectProperty(String namespace, String name,
             String uid, String resourceVersion, String buildRunPolicy) {
@@ -109,6 +112,14 @@ public class BuildConfigProjectProperty extends JobProperty<Job<?, ?>> {
         this.buildRunPolicy = buildRunPolicy;
     }
 
+    long getSavedAt() {
+        return savedAt;
+    }
+
+    void setSavedAt(long savedAt) {
+        this.savedAt = savedAt;
+    }
+
     @Extension
     public static final class DescriptorImpl extends JobPropertyDescriptor {
         public boolean isApplicable(Class<? extends Job> jobType) {
@@ -19,15 +19,16 @@ import com.cloudbees.hudson.plugins.folder.Folder;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.BulkChange;
+import hudson.Util;
 import hudson.model.ItemGroup;
 import hudson.model.Job;
 import hudson.model.ParameterDefinition;
 import hudson.security.ACL;
 import hudson.triggers.SafeTimerTask;
 import hudson.util.XStream2;
+import io.fabric8.kubernetes.api.model.HasMetadata;
 import io.fabric8.kubernetes.client.Watcher.Action;
 import io.fabric8.openshift.api.model.BuildConfig;
-import io.fabric8.openshift.api.model.BuildConfigList;
 import io.fabric8.openshift.api.model.BuildList;
 import jenkins.model.Jenkins;
 import jenkins.security.NotReallyRoleSensitiveCallable;
@@ -41,8 +42,8 @@ import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static io.fabric8.jenkins.openshiftsync.Annotations.DISABLE_SYNC_CREATE;
@@ -74,6 +75,16 @@ public class BuildConfigWatcher extends BaseWatcher {
     // available
     private static final ConcurrentHashSet<String> deletesInProgress = new ConcurrentHashSet<String>();
 
+    // build configs fetched from the API server because the cache did not
+    // have them (a namespace resumed from a checkpoint is only cached as its
+    // build configs change), by namespace/name; kept out of the cache, where
+    // an entry would make the watcher drop the ADDED event with the same
+    // resource version, and dropped on any event of the build config
+    private final ConcurrentHashMap<String, BuildConfig> fetchedBuildConfigs = new ConcurrentHashMap<String, BuildConfig>();
+    // a marker per build config being fetched, removed by any event of the
+    // build config so a copy fetched before e.g. its deletion is not kept
+    private final ConcurrentHashMap<String, Object> fetchesInProgress = new ConcurrentHashMap<String, Object>();
+
     public static void deleteInProgress(String bcName) {
         deletesInProgress.add(bcName);
     }
@@ -91,6 +102,69 @@ public class BuildConfigWatcher extends BaseWatcher {
         super(namespaces);
     }
 
+    /**
+     * Returns the BuildConfig as last seen by the running watcher, or as last
+     * fetched through it, or null if it has neither
+     */
+    static BuildConfig getCachedBuildConfig(String namespace, String name) {
+        BuildConfigWatcher watcher = getRunningWatcher();
+        if (watcher == null) {
+            return null;
+        }
+        BuildConfig buildConfig = (BuildConfig) watcher.cache.get(namespace, name);
+        if (buildConfig != null) {
+            return buildConfig;
+        }
+        return watcher.fetchedBuildConfigs.get(namespace + "/" + name);
+    }
+
+    /**
+     * Fetches a BuildConfig from the API server and keeps it until the next
+     * event of that build config, unless an event arrived while it was being
+     * fetched
+     */
+    static BuildConfig fetchBuildConfig(String namespace, String name) {
+        BuildConfigWatcher watcher = getRunningWatcher();
+        String key = namespace + "/" + name;
+        Object marker = new Object();
+        if (watcher != null) {
+            watcher.fetchesInProgress.put(key, marker);
+        }
+        BuildConfig buildConfig = null;
+        try {
+            buildConfig = getAuthenticatedOpenShiftClient().buildConfigs().inNamespace(namespace).withName(name).get();
+        } finally {
+            if (watcher != null && watcher.fetchesInProgress.remove(key, marker) && buildConfig != null) {
+                watcher.fetchedBuildConfigs.put(key, buildConfig);
+            }
+        }
+        return buildConfig;
+    }
+
+    private static BuildConfigWatcher getRunningWatcher() {
+        GlobalPluginConfiguration config = GlobalPluginConfiguration.get();
+        return config != null ? config.getBuildConfigWatcher() : null;
+    }
+
+    // every event, from the watch or a relist, supersedes a fetched copy
+    @Override
+    protected void dispatch(Action action, HasMetadata resource) {
+        forgetFetchedBuildConfig(resource);
+        super.dispatch(action, resource);
+    }
+
+    @Override
+    protected void dispatchAsync(Action action, HasMetadata resource) {
+        forgetFetchedBuildConfig(resource);
+        super.dispatchAsync(action, resource);
+    }
+
+    private void forgetFetchedBuildConfig(HasMetadata resource) {
+        String key = resource.getMetadata().getNamespace() + "/" + resource.getMetadata().getName();
+        fetchesInProgress.remove(key);
+        fetchedBuildConfigs.remove(key);
+    }
+
     @Override
     public int getListIntervalInSeconds() {
         return GlobalPluginConfiguration.get().getBuildConfigListInterval();
@@ -105,27 +179,43 @@ public class BuildConfigWatcher extends BaseWatcher {
                     return;
                 }
                 for (String namespace : namespaces) {
-                    BuildConfigList buildConfigs = null;
-                    try {
-                        logger.fine("listing BuildConfigs resources");
-                        buildConfigs = getAuthenticatedOpenShiftClient().buildConfigs().inNamespace(namespace).list();
-                        onInitialBuildConfigs(buildConfigs);
-                        logger.fine("handled BuildConfigs resources");
-                    } catch (Exception e) {
-                        logger.log(SEVERE, "Failed to load BuildConfigs: " + e, e);
+                    if (!needsRelist(namespace)) {
+                        logger.fine("BuildConfig watch for namespace " + namespace + " is active, resyncing from cache");
+                        resync(namespace);
+                        continue;
+                    }
+                    String listResourceVersion = getResumeVersion(namespace);
+                    if (listResourceVersion != null) {
+                        logger.info("resuming BuildConfig watch for namespace " + namespace + " from checkpointed resource version " + listResourceVersion);
+                    } else {
+                        try {
+                            logger.fine("listing BuildConfigs resources");
+                            listResourceVersion = listNamespace(namespace,
+                                    getAuthenticatedOpenShiftClient().buildConfigs().inNamespace(namespace), true,
+                                    new PageHandler<BuildConfig>() {
+                                        @Override
+                                        public void onPage(List<BuildConfig> items) {
+                                            onInitialBuildConfigs(items);
+                                        }
+                                    });
+                            logger.fine("handled BuildConfigs resources");
+                        } catch (Exception e) {
+                            logger.log(SEVERE, "Failed to load BuildConfigs: " + e, e);
+                        }
                     }
                     try {
                         String resourceVersion = "0";
-                        if (buildConfigs == null) {
+                        if (listResourceVersion == null) {
                             logger.warning("Unable to get build config list; impacts resource version used for watch");
                         } else {
-                            resourceVersion = buildConfigs.getMetadata().getResourceVersion();
+                            resourceVersion = listResourceVersion;
                         }
                         if (watches.get(namespace) == null) {
                             logger.info("creating BuildConfig watch for namespace " + namespace + " and resource version " + resourceVersion);
                             addWatch(namespace, getAuthenticatedOpenShiftClient().buildConfigs().inNamespace(namespace).withResourceVersion(resourceVersion).watch(new WatcherCallback<BuildConfig>(BuildConfigWatcher.this,namespace)));
                         }
                     } catch (Exception e) {
+                        onWatchFailure(namespace, e);
                         logger.log(SEVERE, "Failed to load BuildConfigs: " + e, e);
                     }
                 }
@@ -137,6 +227,25 @@ public class BuildConfigWatcher extends BaseWatcher {
         };
     }
 
+    /**
+     * Jobs are kept on disk, so after a restart the watch picks up the
+     * changes made since the last handled event instead of running every
+     * build config through {@link JobProcessor} again.
+     */
+    @Override
+    protected boolean resumesWatches() {
+        return true;
+    }
+
+    // the jobs a build config maps to also depend on the job naming settings
+    @Override
+    protected String getCheckpointDigest(String namespace) {
+        GlobalPluginConfiguration config = GlobalPluginConfiguration.get();
+        return Util.getDigestOf(super.getCheckpointDigest(namespace) + "\n" + config.getFoldersEnabled() + "\n"
+                + config.getJobNamePattern() + "\n" + config.getSkipOrganizationPrefix() + "\n"
+                + config.getSkipBranchSuffix());
+    }
+
     public void start() {
         initializeBuildConfigToJobMap();
         logger.info("Now handling startup build configs!!");
@@ -144,10 +253,20 @@ public class BuildConfigWatcher extends BaseWatcher {
 
     }
 
-    private void onInitialBuildConfigs(BuildConfigList buildConfigs) {
-        if (buildConfigs == null)
-            return;
-        List<BuildConfig> items = buildConfigs.getItems();
+    /**
+     * Runs the cached build configs through {@link JobProcessor} again, so a
+     * job deleted in Jenkins is recreated; jobs already in sync return before
+     * doing any work. They are queued like a MODIFIED event, so they are
+     * handled in order with the other events of the build config.
+     */
+    @Override
+    protected void resync(String namespace) {
+        for (HasMetadata cached : cache.list(namespace)) {
+            dispatchAsync(Action.MODIFIED, cached);
+        }
+    }
+
+    private void onInitialBuildConfigs(List<BuildConfig> items) {
         if (items != null) {
             for (BuildConfig buildConfig : items) {
                 try {
@@ -222,7 +341,12 @@ public class BuildConfigWatcher extends BaseWatcher {
                 }
             });
         } catch (Exception e) {
-            logger.log(Level.WARNING, "Caught: " + e, e);
+            // logged by the EventDispatcher; the failure keeps the watch
+            // checkpoint from moving past this event
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new RuntimeException(e);
         }
     }
     @Override
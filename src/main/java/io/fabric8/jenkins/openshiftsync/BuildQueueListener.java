@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2017 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.fabric8.jenkins.openshiftsync;
+
+import hudson.Extension;
+import hudson.model.Cause;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the queue items triggered by OpenShift builds, by Build UID
+ * and by BuildConfig UID, so cancelling a queued build does not have to scan
+ * the whole Jenkins queue
+ */
+@Extension
+public class BuildQueueListener extends QueueListener {
+
+    // Build UID -> queue item id
+    private static final ConcurrentHashMap<String, Long> buildUidToItemId = new ConcurrentHashMap<>();
+
+    // BuildConfig UID -> queue item ids
+    private static final ConcurrentHashMap<String, Set<Long>> buildConfigUidToItemIds = new ConcurrentHashMap<>();
+
+    // items restored from disk at startup do not go through the listener
+    private static volatile boolean seeded;
+
+    @Override
+    public void onEnterWaiting(Queue.WaitingItem wi) {
+        add(wi);
+    }
+
+    @Override
+    public void onLeft(Queue.LeftItem li) {
+        remove(li);
+    }
+
+    /**
+     * Returns the queue item triggered by the given build, or null
+     */
+    static Queue.Item getQueuedItem(String buildUid) {
+        seed();
+        if (buildUid == null) {
+            return null;
+        }
+        Long id = buildUidToItemId.get(buildUid);
+        return id != null ? Jenkins.getActiveInstance().getQueue().getItem(id) : null;
+    }
+
+    /**
+     * Returns the queue items triggered by builds of the given build config
+     */
+    static List<Queue.Item> getQueuedItems(String buildConfigUid) {
+        seed();
+        List<Queue.Item> items = new ArrayList<>();
+        Set<Long> ids = buildConfigUid != null ? buildConfigUidToItemIds.get(buildConfigUid) : null;
+        if (ids != null) {
+            Queue queue = Jenkins.getActiveInstance().getQueue();
+            for (Long id : ids) {
+                Queue.Item item = queue.getItem(id);
+                if (item != null) {
+                    items.add(item);
+                }
+            }
+        }
+        return items;
+    }
+
+    private static void seed() {
+        if (seeded) {
+            return;
+        }
+        synchronized (BuildQueueListener.class) {
+            if (!seeded) {
+                for (Queue.Item item : Jenkins.getActiveInstance().getQueue().getItems()) {
+                    add(item);
+                }
+                seeded = true;
+            }
+        }
+    }
+
+    private static void add(Queue.Item item) {
+        for (BuildCause cause : buildCauses(item)) {
+            if (cause.getUid() != null) {
+                buildUidToItemId.put(cause.getUid(), item.getId());
+            }
+            if (cause.getBuildConfigUid() != null) {
+                Set<Long> ids = buildConfigUidToItemIds.get(cause.getBuildConfigUid());
+                if (ids == null) {
+                    Set<Long> newIds = ConcurrentHashMap.<Long, Boolean> newKeySet();
+                    ids = buildConfigUidToItemIds.putIfAbsent(cause.getBuildConfigUid(), newIds);
+                    if (ids == null) {
+                        ids = newIds;
+                    }
+                }
+                ids.add(item.getId());
+            }
+        }
+    }
+
+    private static void remove(Queue.Item item) {
+        for (BuildCause cause : buildCauses(item)) {
+            if (cause.getUid() != null) {
+                buildUidToItemId.remove(cause.getUid(), item.getId());
+            }
+            if (cause.getBuildConfigUid() != null) {
+                Set<Long> ids = buildConfigUidToItemIds.get(cause.getBuildConfigUid());
+                if (ids != null) {
+                    ids.remove(item.getId());
+                }
+            }
+        }
+    }
+
+    // an item can carry several build causes when Jenkins folded the
+    // triggers of several builds into it
+    private static List<BuildCause> buildCauses(Queue.Item item) {
+        List<BuildCause> causes = new ArrayList<>();
+        for (Cause cause : item.getCauses()) {
+            if (cause instanceof BuildCause) {
+                causes.add((BuildCause) cause);
+            }
+        }
+        return causes;
+    }
+}
@@ -22,10 +22,14 @@ import com.cloudbees.workflow.rest.external.RunExt;
 import com.cloudbees.workflow.rest.external.StageNodeExt;
 import com.cloudbees.workflow.rest.external.StatusExt;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import hudson.Extension;
 import hudson.PluginManager;
+import hudson.Util;
 import hudson.model.Result;
 import hudson.model.Run;
 import hudson.model.TaskListener;
@@ -33,8 +37,6 @@ import hudson.model.listeners.RunListener;
 import hudson.triggers.SafeTimerTask;
 import io.fabric8.kubernetes.client.KubernetesClientException;
 import io.fabric8.openshift.api.model.Build;
-import io.fabric8.openshift.api.model.BuildFluent;
-import io.fabric8.openshift.api.model.DoneableBuild;
 import io.jenkins.blueocean.rest.factory.BlueRunFactory;
 import io.jenkins.blueocean.rest.model.BluePipelineNode;
 import io.jenkins.blueocean.rest.model.BlueRun;
@@ -43,6 +45,10 @@ import jenkins.model.Jenkins;
 import jenkins.util.Timer;
 
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.flow.GraphListener;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
 import org.jenkinsci.plugins.workflow.support.steps.input.InputAction;
 import org.jenkinsci.plugins.workflow.support.steps.input.InputStepExecution;
@@ -54,10 +60,13 @@ import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -72,6 +81,8 @@ import static io.fabric8.jenkins.openshiftsync.Constants.OPENSHIFT_ANNOTATIONS_J
 import static io.fabric8.jenkins.openshiftsync.JenkinsUtils.maybeScheduleNext;
 import static io.fabric8.jenkins.openshiftsync.OpenShiftUtils.formatTimestamp;
 import static io.fabric8.jenkins.openshiftsync.OpenShiftUtils.getAuthenticatedOpenShiftClient;
+import static io.fabric8.jenkins.openshiftsync.OpenShiftUtils.jsonMapper;
+import static io.fabric8.jenkins.openshiftsync.OpenShiftUtils.patchBuild;
 import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
 import static java.util.logging.Level.FINE;
 import static java.util.logging.Level.SEVERE;
@@ -90,11 +101,30 @@ public class BuildSyncRunListener extends RunListener<Run> {
     private long pollPeriodMs = 1000 * 5;  // 5 seconds
     private long delayPollPeriodMs = 1000; // 1 seconds
     private static final long maxDelay = 30000;
+    // how often a Build whose content did not change is still rewritten
+    private static final long unchangedHeartbeat = 10 * 60 * 1000;
+    private static final List<String> runningStatuses = Arrays.asList(StatusExt.IN_PROGRESS.name(),
+            StatusExt.PAUSED_PENDING_INPUT.name());
+    private static final List<String> runningTimings = Arrays.asList("durationMillis", "pauseDurationMillis",
+            "queueDurationMillis", "endTimeMillis");
 
     private transient ConcurrentLinkedQueue<Run> runsToPoll = new ConcurrentLinkedQueue<>();
 
     private transient AtomicBoolean timerStarted = new AtomicBoolean(false);
 
+    // runs whose flow graph changed since they were last synced, with the
+    // number of poll ticks left on which they are synced; a couple of ticks
+    // lets state that settles after the new node (e.g. a pending input) be
+    // picked up
+    private transient ConcurrentHashMap<Run, Integer> dirtyRuns = new ConcurrentHashMap<>();
+    private static final int DIRTY_TICKS = 2;
+    // for runs whose flow graph cannot be listened to
+    private static final int ALWAYS_DIRTY = Integer.MAX_VALUE;
+
+    // the getRunURL method of the BlueOcean display URL plugin, looked up
+    // again only when the set of installed plugins changes
+    private static volatile BlueOceanDisplayURL blueOceanDisplayURL;
+
     public BuildSyncRunListener() {
     }
 
@@ -128,8 +158,15 @@ public class BuildSyncRunListener extends RunListener<Run> {
                 .replaceAll("/#", "#").replaceAll(":/", "://");
     }
 
+    @Override
+    public void onInitialize(Run run) {
+        BuildToRunMap.onInitialize(run);
+        super.onInitialize(run);
+    }
+
     @Override
     public void onStarted(Run run, TaskListener listener) {
+        BuildToRunMap.onStarted(run);
         if (shouldPollRun(run)) {
             try {
                 BuildCause cause = (BuildCause) run.getCause(BuildCause.class);
@@ -142,6 +179,8 @@ public class BuildSyncRunListener extends RunListener<Run> {
             }
             if (runsToPoll.add(run)) {
                 logger.info("starting polling build " + run.getUrl());
+                markDirty(run);
+                listenToFlowGraph((WorkflowRun) run);
             }
             checkTimerStarted();
         } else {
@@ -164,10 +203,67 @@ public class BuildSyncRunListener extends RunListener<Run> {
         }
     }
 
+    // marks the run dirty whenever a node of its flow graph starts or ends,
+    // so only runs where something happened are synced on the next poll
+    private void listenToFlowGraph(final WorkflowRun run) {
+        final ListenableFuture<FlowExecution> promise = run.getExecutionPromise();
+        promise.addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    promise.get().addListener(new GraphListener() {
+                        @Override
+                        public void onNewHead(FlowNode node) {
+                            markDirty(run);
+                        }
+                    });
+                    markDirty(run);
+                } catch (Exception e) {
+                    logger.log(FINE, "cannot listen to the flow graph of " + run.getUrl()
+                            + ", syncing it on every poll", e);
+                    dirtyRuns.put(run, ALWAYS_DIRTY);
+                }
+                // the run may have finished before its execution was ready
+                if (!runsToPoll.contains(run)) {
+                    dirtyRuns.remove(run);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    private void markDirty(Run run) {
+        Integer ticks = dirtyRuns.get(run);
+        if (ticks == null || ticks != ALWAYS_DIRTY) {
+            dirtyRuns.put(run, DIRTY_TICKS);
+        }
+    }
+
+    // returns true if the run is dirty, using up one of its dirty ticks
+    private boolean takeDirty(Run run) {
+        Integer ticks = dirtyRuns.get(run);
+        if (ticks == null) {
+            return false;
+        }
+        if (ticks == ALWAYS_DIRTY) {
+            return true;
+        }
+        if (ticks <= 1) {
+            dirtyRuns.remove(run, ticks);
+        } else {
+            dirtyRuns.replace(run, ticks, ticks - 1);
+        }
+        return true;
+    }
+
+    private void stopPolling(Run run) {
+        runsToPoll.remove(run);
+        dirtyRuns.remove(run);
+    }
+
     @Override
     public void onCompleted(Run run, @Nonnull TaskListener listener) {
         if (shouldPollRun(run)) {
-            runsToPoll.remove(run);
+            stopPolling(run);
             pollRun(run);
             logger.info("onCompleted " + run.getUrl());
             maybeScheduleNext(((WorkflowRun) run).getParent());
@@ -177,8 +273,9 @@ public class BuildSyncRunListener extends RunListener<Run> {
 
     @Override
     public void onDeleted(Run run) {
+        BuildToRunMap.onDeleted(run);
         if (shouldPollRun(run)) {
-            runsToPoll.remove(run);
+            stopPolling(run);
             pollRun(run);
             logger.info("onDeleted " + run.getUrl());
             maybeScheduleNext(((WorkflowRun) run).getParent());
@@ -189,7 +286,7 @@ public class BuildSyncRunListener extends RunListener<Run> {
     @Override
     public void onFinalized(Run run) {
         if (shouldPollRun(run)) {
-            runsToPoll.remove(run);
+            stopPolling(run);
             pollRun(run);
             logger.info("onFinalized " + run.getUrl());
         }
@@ -197,12 +294,23 @@ public class BuildSyncRunListener extends RunListener<Run> {
     }
 
     protected void pollLoop() {
+        long currTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
         Iterator<Run> iter = runsToPoll.iterator();
         while (iter.hasNext()) {
-            pollRun(iter.next());
+            Run run = iter.next();
+            // besides dirty runs, sync any run not synced for maxDelay so the
+            // Build still gets a periodic refresh
+            if (takeDirty(run) || isSyncOverdue(run, currTime)) {
+                pollRun(run);
+            }
         }
     }
 
+    private boolean isSyncOverdue(Run run, long currTime) {
+        BuildCause cause = (BuildCause) run.getCause(BuildCause.class);
+        return cause == null || currTime > (cause.getLastUpdateToOpenshift() + maxDelay);
+    }
+
     protected void pollRun(Run run) {
         if (!(run instanceof WorkflowRun)) {
             throw new IllegalStateException("Cannot poll a non-workflow run");
@@ -226,7 +334,7 @@ public class BuildSyncRunListener extends RunListener<Run> {
             upsertBuild(run, wfRunExt, blueRun);
         } catch (KubernetesClientException e) {
             if (e.getCode() == HttpStatus.SC_UNPROCESSABLE_ENTITY) {
-                runsToPoll.remove(run);
+                stopPolling(run);
                 logger.log(WARNING, "Cannot update status: {0}", e.getMessage());
                 return;
             }
@@ -291,40 +399,21 @@ public class BuildSyncRunListener extends RunListener<Run> {
         String logsConsoleUrl = joinPaths(buildUrl, "/console");
         String logsBlueOceanUrl = null;
         try {
-            // there are utility functions in the blueocean-dashboard plugin
-            // which construct
-            // the entire blueocean URI; however, attempting to pull that in as
-            // a maven dependency was untenable from an injected test
-            // perspective;
-            // so we are leveraging reflection;
-            Jenkins jenkins = Jenkins.getInstance();
-            // NOTE, the excessive null checking is to keep `mvn findbugs:gui`
-            // quiet
-            if (jenkins != null) {
-                PluginManager pluginMgr = jenkins.getPluginManager();
-                if (pluginMgr != null) {
-                    ClassLoader cl = pluginMgr.uberClassLoader;
-                    if (cl != null) {
-                        Class weburlbldr = cl
-                                .loadClass("org.jenkinsci.plugins.blueoceandisplayurl.BlueOceanDisplayURLImpl");
-                        Constructor ctor = weburlbldr.getConstructor();
-                        Object displayURL = ctor.newInstance();
-                        Method getRunURLMethod = weburlbldr.getMethod(
-                                "getRunURL", hudson.model.Run.class);
-                        Object blueOceanURI = getRunURLMethod.invoke(
-                                displayURL, run);
-                        logsBlueOceanUrl = blueOceanURI.toString();
-                        logsBlueOceanUrl = logsBlueOceanUrl.replaceAll(
-                                "http://unconfigured-jenkins-location/", "");
-                        if (logsBlueOceanUrl.startsWith("http://")
-                                || logsBlueOceanUrl.startsWith("https://"))
-                            // still normalize string
-                            logsBlueOceanUrl = joinPaths("", logsBlueOceanUrl);
-                        else
-                            logsBlueOceanUrl = joinPaths(rootUrl,
-                                    logsBlueOceanUrl);
-                    }
-                }
+            // the path of a run never changes, so it is only worked out once;
+            // the root it is joined with may
+            String blueOceanRunUrl = cause.getBlueOceanRunUrl();
+            if (blueOceanRunUrl == null) {
+                blueOceanRunUrl = relativeToRootUrl(getBlueOceanRunURL(run));
+                cause.setBlueOceanRunUrl(blueOceanRunUrl);
+            }
+            if (blueOceanRunUrl != null) {
+                logsBlueOceanUrl = blueOceanRunUrl;
+                if (logsBlueOceanUrl.startsWith("http://")
+                        || logsBlueOceanUrl.startsWith("https://"))
+                    // still normalize string
+                    logsBlueOceanUrl = joinPaths("", logsBlueOceanUrl);
+                else
+                    logsBlueOceanUrl = joinPaths(rootUrl, logsBlueOceanUrl);
             }
         } catch (Throwable t) {
             if (logger.isLoggable(Level.FINE))
@@ -404,7 +493,7 @@ public class BuildSyncRunListener extends RunListener<Run> {
 
         String json;
         try {
-            json = new ObjectMapper().writeValueAsString(wfRunExt);
+            json = jsonMapper.writeValueAsString(wfRunExt);
         } catch (JsonProcessingException e) {
             logger.log(SEVERE, "Failed to serialize workflow run. " + e, e);
             return;
@@ -431,52 +520,79 @@ public class BuildSyncRunListener extends RunListener<Run> {
 
         logger.log(FINE, "Patching build {0}/{1}: setting phase to {2}",
                 new Object[] { cause.getNamespace(), cause.getName(), phase });
-        try {
-            BuildFluent.MetadataNested<DoneableBuild> builder = getAuthenticatedOpenShiftClient()
-                    .builds()
-                    .inNamespace(cause.getNamespace())
-                    .withName(cause.getName())
-                    .edit()
-                    .editMetadata()
-                    .addToAnnotations(
-                            OPENSHIFT_ANNOTATIONS_JENKINS_STATUS_JSON, json)
-                    .addToAnnotations(OPENSHIFT_ANNOTATIONS_JENKINS_BUILD_URI,
-                            buildUrl)
-                    .addToAnnotations(OPENSHIFT_ANNOTATIONS_JENKINS_LOG_URL,
-                            logsUrl)
-                    .addToAnnotations(
-                            Constants.OPENSHIFT_ANNOTATIONS_JENKINS_CONSOLE_LOG_URL,
-                            logsConsoleUrl)
-                    .addToAnnotations(
-                            Constants.OPENSHIFT_ANNOTATIONS_JENKINS_BLUEOCEAN_LOG_URL,
-                            logsBlueOceanUrl);
-
-            String jenkinsNamespace = System.getenv("KUBERNETES_NAMESPACE");
-            if (jenkinsNamespace != null && !jenkinsNamespace.isEmpty()) {
-                builder.addToAnnotations(
-                        OPENSHIFT_ANNOTATIONS_JENKINS_NAMESPACE,
-                        jenkinsNamespace);
-            }
-            if (pendingActionsJson != null && !pendingActionsJson.isEmpty()) {
-                builder.addToAnnotations(
-                        OPENSHIFT_ANNOTATIONS_JENKINS_PENDING_INPUT_ACTION_JSON,
-                        pendingActionsJson);
-            }
-            builder.endMetadata().editStatus().withPhase(phase)
-                    .withStartTimestamp(startTime)
-                    .withCompletionTimestamp(completionTime).endStatus().done();
-        } catch (KubernetesClientException e) {
-            if (HTTP_NOT_FOUND == e.getCode()) {
-                runsToPoll.remove(run);
-            } else {
-                throw e;
+        Map<String, String> annotations = new HashMap<String, String>();
+        annotations.put(OPENSHIFT_ANNOTATIONS_JENKINS_STATUS_JSON, json);
+        annotations.put(OPENSHIFT_ANNOTATIONS_JENKINS_BUILD_URI, buildUrl);
+        annotations.put(OPENSHIFT_ANNOTATIONS_JENKINS_LOG_URL, logsUrl);
+        annotations.put(Constants.OPENSHIFT_ANNOTATIONS_JENKINS_CONSOLE_LOG_URL, logsConsoleUrl);
+        annotations.put(Constants.OPENSHIFT_ANNOTATIONS_JENKINS_BLUEOCEAN_LOG_URL, logsBlueOceanUrl);
+        String jenkinsNamespace = System.getenv("KUBERNETES_NAMESPACE");
+        if (jenkinsNamespace != null && !jenkinsNamespace.isEmpty()) {
+            annotations.put(OPENSHIFT_ANNOTATIONS_JENKINS_NAMESPACE, jenkinsNamespace);
+        }
+        if (pendingActionsJson != null && !pendingActionsJson.isEmpty()) {
+            annotations.put(OPENSHIFT_ANNOTATIONS_JENKINS_PENDING_INPUT_ACTION_JSON, pendingActionsJson);
+        }
+        Map<String, String> status = new HashMap<String, String>();
+        status.put("phase", phase);
+        status.put("startTimestamp", startTime);
+        status.put("completionTimestamp", completionTime);
+
+        // the status JSON can be hundreds of KB, so skip the write when it
+        // would not change anything on the Build, apart from an occasional
+        // heartbeat; the timings of running stages grow on every poll, so
+        // they are left out of the comparison and only go out with other
+        // changes or the heartbeat
+        long currTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        Map<String, String> compared = new TreeMap<String, String>(annotations);
+        compared.put(OPENSHIFT_ANNOTATIONS_JENKINS_STATUS_JSON, withoutRunningTimings(wfRunExt));
+        String digest = Util.getDigestOf(compared.toString()
+                + new TreeMap<String, String>(status).toString());
+        if (digest.equals(cause.getLastPushedDigest())
+                && currTime < cause.getLastPushedTime() + unchangedHeartbeat) {
+            logger.log(FINE, "Build {0}/{1} is up to date, skipping update",
+                    new Object[] { cause.getNamespace(), cause.getName() });
+        } else {
+            try {
+                // ordered with the PENDING update sent when the build was
+                // triggered, see JenkinsUtils.markBuildPending
+                synchronized (cause.getUid().intern()) {
+                    patchBuild(cause.getNamespace(), cause.getName(), annotations, status);
+                }
+            } catch (KubernetesClientException e) {
+                if (HTTP_NOT_FOUND == e.getCode()) {
+                    stopPolling(run);
+                } else {
+                    throw e;
+                }
             }
+            cause.setLastPushedDigest(digest);
+            cause.setLastPushedTime(currTime);
         }
 
         cause.setNumFlowNodes(newNumFlowNodes);
         cause.setNumStages(newNumStages);
-        cause.setLastUpdateToOpenshift(TimeUnit.NANOSECONDS.toMillis(System
-                .nanoTime()));
+        cause.setLastUpdateToOpenshift(currTime);
+    }
+
+    // the status JSON without the timings of the run, stages and nodes that
+    // are still running
+    private static String withoutRunningTimings(RunExt wfRunExt) {
+        JsonNode tree = jsonMapper.valueToTree(wfRunExt);
+        removeRunningTimings(tree);
+        return tree.toString();
+    }
+
+    private static void removeRunningTimings(JsonNode node) {
+        if (node.isObject()) {
+            JsonNode status = node.get("status");
+            if (status != null && runningStatuses.contains(status.asText())) {
+                ((ObjectNode) node).remove(runningTimings);
+            }
+        }
+        for (JsonNode child : node) {
+            removeRunningTimings(child);
+        }
     }
 
     // annotate the Build with pending input JSON so consoles can do the
@@ -495,13 +611,106 @@ public class BuildSyncRunListener extends RunListener<Run> {
             }
         }
         try {
-            return new ObjectMapper().writeValueAsString(pendingInputActions);
+            return jsonMapper.writeValueAsString(pendingInputActions);
         } catch (JsonProcessingException e) {
             logger.log(SEVERE, "Failed to serialize pending actions. " + e, e);
             return null;
         }
     }
 
+    /**
+     * Returns the BlueOcean URL of a run as built by the BlueOcean display URL
+     * plugin, or null if that plugin is not installed
+     */
+    private static String getBlueOceanRunURL(Run run) throws Exception {
+        // there are utility functions in the blueocean-dashboard plugin which
+        // construct the entire blueocean URI; however, attempting to pull that
+        // in as a maven dependency was untenable from an injected test
+        // perspective; so we are leveraging reflection;
+        Jenkins jenkins = Jenkins.getInstance();
+        // NOTE, the excessive null checking is to keep `mvn findbugs:gui`
+        // quiet
+        if (jenkins == null) {
+            return null;
+        }
+        PluginManager pluginMgr = jenkins.getPluginManager();
+        if (pluginMgr == null) {
+            return null;
+        }
+        ClassLoader cl = pluginMgr.uberClassLoader;
+        if (cl == null) {
+            return null;
+        }
+        int pluginCount = pluginMgr.getPlugins().size();
+        BlueOceanDisplayURL displayURL = blueOceanDisplayURL;
+        if (displayURL == null || !displayURL.isFor(cl, pluginCount)) {
+            displayURL = BlueOceanDisplayURL.lookup(cl, pluginCount);
+            blueOceanDisplayURL = displayURL;
+        }
+        return displayURL.getRunURL(run);
+    }
+
+    // strips the Jenkins root URL the BlueOcean display URL plugin puts in
+    // front of the path of a run
+    private static String relativeToRootUrl(String url) {
+        if (url == null) {
+            return null;
+        }
+        url = url.replaceAll("http://unconfigured-jenkins-location/", "");
+        Jenkins jenkins = Jenkins.getInstance();
+        String configuredRootUrl = jenkins != null ? jenkins.getRootUrl() : null;
+        if (StringUtils.isNotEmpty(configuredRootUrl) && url.startsWith(configuredRootUrl)) {
+            url = url.substring(configuredRootUrl.length());
+        }
+        return url;
+    }
+
+    private static final class BlueOceanDisplayURL {
+        private final ClassLoader classLoader;
+        private final int pluginCount;
+        // both null if the plugin is not installed
+        private final Object displayURL;
+        private final Method getRunURLMethod;
+
+        private BlueOceanDisplayURL(ClassLoader classLoader, int pluginCount,
+                Object displayURL, Method getRunURLMethod) {
+            this.classLoader = classLoader;
+            this.pluginCount = pluginCount;
+            this.displayURL = displayURL;
+            this.getRunURLMethod = getRunURLMethod;
+        }
+
+        private static BlueOceanDisplayURL lookup(ClassLoader cl, int pluginCount) {
+            try {
+                Class weburlbldr = cl
+                        .loadClass("org.jenkinsci.plugins.blueoceandisplayurl.BlueOceanDisplayURLImpl");
+                Constructor ctor = weburlbldr.getConstructor();
+                Object displayURL = ctor.newInstance();
+                Method getRunURLMethod = weburlbldr.getMethod("getRunURL",
+                        hudson.model.Run.class);
+                return new BlueOceanDisplayURL(cl, pluginCount, displayURL,
+                        getRunURLMethod);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                if (logger.isLoggable(FINE)) {
+                    logger.log(FINE, "BlueOcean display URL plugin not available", e);
+                }
+                return new BlueOceanDisplayURL(cl, pluginCount, null, null);
+            }
+        }
+
+        private boolean isFor(ClassLoader cl, int pluginCount) {
+            return classLoader == cl && this.pluginCount == pluginCount;
+        }
+
+        private String getRunURL(Run run) throws Exception {
+            if (getRunURLMethod == null) {
+                return null;
+            }
+            Object blueOceanURI = getRunURLMethod.invoke(displayURL, run);
+            return blueOceanURI != null ? blueOceanURI.toString() : null;
+        }
+    }
+
     private long getStartTime(Run run) {
         return run.getStartTimeInMillis();
     }
@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2017 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.fabric8.jenkins.openshiftsync;
+
+import hudson.model.Run;
+
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Index from OpenShift Build UID to the job run it triggered, so runs can be
+ * found without walking (and loading from disk) the whole history of a job.
+ * Runs are added and removed as {@link BuildSyncRunListener} sees them, and
+ * the entries of a job are dropped when it is deleted or moved. A run missing
+ * from the index, such as one which existed before startup or has not
+ * started yet, is looked for among the last {@link #MAX_RUNS_SEARCHED} runs
+ * of its job only; older runs are left to the periodic reconcile in
+ * {@link BuildWatcher}.
+ */
+public class BuildToRunMap {
+
+    private static final Logger logger = Logger.getLogger(BuildToRunMap.class.getName());
+
+    // how far back from the last run of a job a run missing from the index is
+    // looked for
+    static final int MAX_RUNS_SEARCHED = 50;
+
+    private static final ConcurrentHashMap<String, RunRef> buildUidToRun = new ConcurrentHashMap<>();
+
+    private BuildToRunMap() {
+    }
+
+    static void onInitialize(Run run) {
+        BuildCause cause = buildCause(run);
+        if (cause != null) {
+            buildUidToRun.put(cause.getUid(), new RunRef(run));
+        }
+    }
+
+    static void onStarted(Run run) {
+        BuildCause cause = buildCause(run);
+        if (cause != null) {
+            buildUidToRun.put(cause.getUid(), new RunRef(run));
+        }
+    }
+
+    static void onDeleted(Run run) {
+        BuildCause cause = buildCause(run);
+        if (cause != null) {
+            buildUidToRun.remove(cause.getUid());
+        }
+    }
+
+    /**
+     * Drops the entries of the runs of a job (or of the jobs in a folder)
+     * which was deleted or moved
+     */
+    static void onJobRemoved(String fullName) {
+        String folderPrefix = fullName + "/";
+        Iterator<RunRef> iter = buildUidToRun.values().iterator();
+        while (iter.hasNext()) {
+            String jobFullName = iter.next().jobFullName;
+            if (jobFullName.equals(fullName) || jobFullName.startsWith(folderPrefix)) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the run of the job triggered by the given build, or null
+     */
+    static WorkflowRun getRun(WorkflowJob job, String buildUid) {
+        if (buildUid == null) {
+            return null;
+        }
+        RunRef ref = buildUidToRun.get(buildUid);
+        if (ref != null && ref.jobFullName.equals(job.getFullName())) {
+            WorkflowRun run = job.getBuildByNumber(ref.number);
+            BuildCause cause = buildCause(run);
+            if (cause != null && buildUid.equals(cause.getUid())) {
+                return run;
+            }
+            // the run was renumbered or removed underneath us
+            logger.fine("stale run index entry for build " + buildUid + " of job " + job.getFullName());
+            buildUidToRun.remove(buildUid, ref);
+        }
+        return findRecentRun(job, buildUid);
+    }
+
+    /**
+     * Returns the runs of the job, triggered by builds of the given build
+     * config, which have not started yet
+     */
+    static List<WorkflowRun> getNotYetStartedRuns(WorkflowJob job, String buildConfigUid) {
+        List<WorkflowRun> runs = new ArrayList<>();
+        for (WorkflowRun run : getNotYetStartedRuns(job)) {
+            BuildCause cause = buildCause(run);
+            if (cause != null && buildConfigUid.equals(cause.getBuildConfigUid())) {
+                runs.add(run);
+            }
+        }
+        return runs;
+    }
+
+    // walks back from the last build of the job while its runs have not
+    // started
+    private static List<WorkflowRun> getNotYetStartedRuns(WorkflowJob job) {
+        List<WorkflowRun> runs = new ArrayList<>();
+        WorkflowRun run = job.getLastBuild();
+        while (run != null && run.hasntStartedYet()) {
+            runs.add(run);
+            run = run.getPreviousBuild();
+        }
+        return runs;
+    }
+
+    // walks back from the last run of the job, indexing the runs it passes
+    private static WorkflowRun findRecentRun(WorkflowJob job, String buildUid) {
+        WorkflowRun run = job.getLastBuild();
+        for (int i = 0; run != null && i < MAX_RUNS_SEARCHED; i++) {
+            BuildCause cause = buildCause(run);
+            if (cause != null) {
+                buildUidToRun.putIfAbsent(cause.getUid(), new RunRef(run));
+                if (buildUid.equals(cause.getUid())) {
+                    return run;
+                }
+            }
+            run = run.getPreviousBuild();
+        }
+        return null;
+    }
+
+    private static BuildCause buildCause(Run run) {
+        if (!(run instanceof WorkflowRun)) {
+            return null;
+        }
+        BuildCause cause = (BuildCause) run.getCause(BuildCause.class);
+        if (cause == null || cause.getUid() == null) {
+            return null;
+        }
+        return cause;
+    }
+
+    private static final class RunRef {
+        private final String jobFullName;
+        private final int number;
+
+        private RunRef(Run run) {
+            this.jobFullName = run.getParent().getFullName();
+            this.number = run.getNumber();
+        }
+    }
+}
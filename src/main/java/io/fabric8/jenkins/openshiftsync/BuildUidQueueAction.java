@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2017 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.fabric8.jenkins.openshiftsync;
+
+import hudson.model.Action;
+import hudson.model.InvisibleAction;
+import hudson.model.Queue;
+
+import java.util.List;
+
+/**
+ * Attached to the queue item of every triggered OpenShift build so Jenkins
+ * never folds two different builds into one queue item (which it otherwise
+ * does when a job is scheduled again with the same parameters while the
+ * first item is still queued), while still folding a repeated trigger of the
+ * same build
+ */
+public class BuildUidQueueAction extends InvisibleAction implements Queue.QueueAction {
+
+    private final String buildUid;
+
+    public BuildUidQueueAction(String buildUid) {
+        this.buildUid = buildUid;
+    }
+
+    public String getBuildUid() {
+        return buildUid;
+    }
+
+    @Override
+    public boolean shouldSchedule(List<Action> actions) {
+        for (Action action : actions) {
+            if (action instanceof BuildUidQueueAction
+                    && buildUid.equals(((BuildUidQueueAction) action).getBuildUid())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
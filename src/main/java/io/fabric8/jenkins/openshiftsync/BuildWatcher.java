@@ -18,8 +18,12 @@ package io.fabric8.jenkins.openshiftsync;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.security.ACL;
 import hudson.triggers.SafeTimerTask;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.ObjectMeta;
+import io.fabric8.kubernetes.api.model.ObjectMetaBuilder;
 import io.fabric8.kubernetes.api.model.OwnerReference;
 import io.fabric8.kubernetes.client.Watcher.Action;
+import io.fabric8.kubernetes.client.dsl.Listable;
 import io.fabric8.openshift.api.model.Build;
 import io.fabric8.openshift.api.model.BuildConfig;
 import io.fabric8.openshift.api.model.BuildList;
@@ -37,8 +41,12 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -49,6 +57,7 @@ import static io.fabric8.jenkins.openshiftsync.BuildConfigToJobMap.getJobFromBui
 import static io.fabric8.jenkins.openshiftsync.BuildPhases.CANCELLED;
 import static io.fabric8.jenkins.openshiftsync.Constants.OPENSHIFT_ANNOTATIONS_BUILD_NUMBER;
 import static io.fabric8.jenkins.openshiftsync.Constants.OPENSHIFT_BUILD_STATUS_FIELD;
+import static io.fabric8.jenkins.openshiftsync.Constants.OPENSHIFT_LABELS_BUILD_CONFIG_NAME;
 import static io.fabric8.jenkins.openshiftsync.JenkinsUtils.cancelBuild;
 import static io.fabric8.jenkins.openshiftsync.JenkinsUtils.deleteRun;
 import static io.fabric8.jenkins.openshiftsync.JenkinsUtils.getJobFromBuild;
@@ -78,6 +87,11 @@ public class BuildWatcher extends BaseWatcher {
     // namepace/name key
     private static final ConcurrentHashMap<String,Build> buildsWithNoBCList = new ConcurrentHashMap<String,Build>();
 
+    // upper bound of the jobs whose runs are reconciled per relist, and the
+    // namespaces left in the current reconcile pass
+    private static final int RECONCILE_JOBS_PER_TICK = 500;
+    private static final Queue<String> namespacesToReconcile = new LinkedList<String>();
+
     @SuppressFBWarnings("EI_EXPOSE_REP2")
     public BuildWatcher(String[] namespaces) {
         super(namespaces);
@@ -103,14 +117,32 @@ public class BuildWatcher extends BaseWatcher {
                 // about
                 BuildWatcher.flushBuildsWithNoBCList();
                 for (String namespace : namespaces) {
-                    BuildList newBuilds = null;
+                    if (!needsRelist(namespace)) {
+                        logger.fine("Build watch for namespace " + namespace + " is active, resyncing from cache");
+                        resync(namespace);
+                        continue;
+                    }
+                    String listResourceVersion = null;
                     try {
                         logger.fine("listing Build resources");
-                        newBuilds = getAuthenticatedOpenShiftClient()
+                        // run policy ordering is worked out across all the
+                        // NEW builds of the namespace, so gather every page
+                        // before handling them
+                        final List<Build> newBuilds = new ArrayList<Build>();
+                        // only NEW builds are listed, so absence from the
+                        // list does not mean the build was deleted
+                        listResourceVersion = listNamespace(namespace,
+                                getAuthenticatedOpenShiftClient()
                                 .builds()
                                 .inNamespace(namespace)
                                 .withField(OPENSHIFT_BUILD_STATUS_FIELD,
-                                        BuildPhases.NEW).list();
+                                        BuildPhases.NEW), false,
+                                new PageHandler<Build>() {
+                                    @Override
+                                    public void onPage(List<Build> items) {
+                                        newBuilds.addAll(items);
+                                    }
+                                });
                         onInitialBuilds(newBuilds);
                         logger.fine("handled Build resources");
                     } catch (Exception e) {
@@ -119,11 +151,10 @@ public class BuildWatcher extends BaseWatcher {
                     }
                     try {
                         String resourceVersion = "0";
-                        if (newBuilds == null) {
+                        if (listResourceVersion == null) {
                             logger.warning("Unable to get build list; impacts resource version used for watch");
                         } else {
-                            resourceVersion = newBuilds.getMetadata()
-                                    .getResourceVersion();
+                            resourceVersion = listResourceVersion;
                         }
                         if (watches.get(namespace) == null) {
                             logger.info("creating Build watch for namespace "
@@ -187,10 +218,79 @@ public class BuildWatcher extends BaseWatcher {
         eventReceived(action, build);
     }
 
+    /**
+     * Builds are triggered in the order of their events, per build config, so
+     * the events of all the builds of a build config share one key.
+     */
+    @Override
+    protected String dispatchKey(HasMetadata resource) {
+        Map<String, String> labels = resource.getMetadata().getLabels();
+        String bcName = labels != null ? labels.get(OPENSHIFT_LABELS_BUILD_CONFIG_NAME) : null;
+        if (bcName == null) {
+            return super.dispatchKey(resource);
+        }
+        return resource.getMetadata().getNamespace() + "/" + bcName;
+    }
+
+    /**
+     * Builds still NEW in the cache are handed to {@link #onInitialBuilds(List)}
+     * again, as the periodic relist of NEW builds used to do, so a build whose
+     * trigger failed or whose job was not there yet is picked up again. The
+     * builds of each build config are queued behind the other events of that
+     * build config.
+     */
+    @Override
+    protected void resync(String namespace) {
+        Map<String, List<Build>> newBuilds = new HashMap<String, List<Build>>();
+        for (HasMetadata cached : cache.list(namespace)) {
+            Build build = (Build) cached;
+            if (build.getStatus() != null && isNew(build.getStatus())) {
+                String key = dispatchKey(build);
+                List<Build> builds = newBuilds.get(key);
+                if (builds == null) {
+                    builds = new ArrayList<Build>();
+                    newBuilds.put(key, builds);
+                }
+                builds.add(build);
+            }
+        }
+        for (Map.Entry<String, List<Build>> entry : newBuilds.entrySet()) {
+            final List<Build> builds = entry.getValue();
+            EventDispatcher.get().dispatchAsync(entry.getKey(), null, false, new Runnable() {
+                @Override
+                public void run() {
+                    onInitialBuilds(builds);
+                }
+            }, null);
+        }
+    }
+
+    /**
+     * Builds which have left NEW carry the status annotations written by
+     * {@link BuildSyncRunListener}, which can be hundreds of KB, and are only
+     * cached to recognize replayed events; for those only the identity and
+     * resource version are kept.
+     */
+    @Override
+    protected HasMetadata toCached(HasMetadata resource) {
+        Build build = (Build) resource;
+        if (build.getStatus() != null && isNew(build.getStatus())) {
+            return build;
+        }
+        ObjectMeta meta = build.getMetadata();
+        Build cached = new Build();
+        cached.setMetadata(new ObjectMetaBuilder().withNamespace(meta.getNamespace()).withName(meta.getName())
+                .withUid(meta.getUid()).withResourceVersion(meta.getResourceVersion()).build());
+        return cached;
+    }
+
     public static void onInitialBuilds(BuildList buildList) {
         if (buildList == null)
             return;
-        List<Build> items = buildList.getItems();
+        onInitialBuilds(buildList.getItems());
+    }
+
+    public static void onInitialBuilds(List<Build> items) {
         if (items != null) {
 
             Collections.sort(items, new Comparator<Build>() {
@@ -253,9 +353,7 @@ public class BuildWatcher extends BaseWatcher {
                 String bcMapKey = namespace + "/" + buildConfigName;
                 BuildConfig bc = buildConfigMap.get(bcMapKey);
                 if (bc == null) {
-                    bc = getAuthenticatedOpenShiftClient().buildConfigs()
-                            .inNamespace(namespace).withName(buildConfigName)
-                            .get();
+                    bc = JenkinsUtils.getBuildConfig(namespace, buildConfigName);
                     if (bc == null) {
                         // if the bc is not there via a REST get, then it is not
                         // going to be, and we are not handling manual creation
@@ -473,38 +571,95 @@ public class BuildWatcher extends BaseWatcher {
   /**
    * Reconciles Jenkins job runs and OpenShift builds
    *
-   * Deletes all job runs that do not have an associated build in OpenShift
+   * Deletes all job runs that do not have an associated build in OpenShift.
+   * Each namespace is listed once and its jobs are checked against the set of
+   * build UIDs; the namespaces are worked through over successive calls, at
+   * most {@link #RECONCILE_JOBS_PER_TICK} jobs' worth per call.
    */
-  private static void reconcileRunsAndBuilds() {
-    logger.info("Reconciling job runs and builds");
-
-    List<WorkflowJob> jobs = Jenkins.getActiveInstance().getAllItems(WorkflowJob.class);
-
-    for (WorkflowJob job : jobs) {
+  private static synchronized void reconcileRunsAndBuilds() {
+    Map<String, List<WorkflowJob>> jobsByNamespace = new HashMap<String, List<WorkflowJob>>();
+    for (WorkflowJob job : Jenkins.getActiveInstance().getAllItems(WorkflowJob.class)) {
       BuildConfigProjectProperty property = job.getProperty(BuildConfigProjectProperty.class);
       if (property == null || StringUtils.isBlank(property.getNamespace()) || StringUtils.isBlank(property.getName())) {
         continue;
       }
+      List<WorkflowJob> namespaceJobs = jobsByNamespace.get(property.getNamespace());
+      if (namespaceJobs == null) {
+        namespaceJobs = new ArrayList<WorkflowJob>();
+        jobsByNamespace.put(property.getNamespace(), namespaceJobs);
+      }
+      namespaceJobs.add(job);
+    }
 
-      logger.info("Checking job " + job.toString() + " runs for BuildConfig " + property.getNamespace() + "/" + property.getName());
+    if (namespacesToReconcile.isEmpty()) {
+      logger.info("Reconciling job runs and builds");
+      namespacesToReconcile.addAll(jobsByNamespace.keySet());
+    }
+    int budget = RECONCILE_JOBS_PER_TICK;
+    while (budget > 0 && !namespacesToReconcile.isEmpty()) {
+      String namespace = namespacesToReconcile.poll();
+      List<WorkflowJob> namespaceJobs = jobsByNamespace.get(namespace);
+      if (namespaceJobs == null) {
+        continue;
+      }
+      reconcileRunsAndBuilds(namespace, namespaceJobs);
+      budget -= namespaceJobs.size();
+    }
+  }
 
-      BuildList buildList = getAuthenticatedOpenShiftClient().builds()
-        .inNamespace(property.getNamespace()).withLabel("buildconfig=" + property.getName()).list();
+  private static void reconcileRunsAndBuilds(String namespace, List<WorkflowJob> jobs) {
+    logger.fine("Checking runs of " + jobs.size() + " jobs against the builds of namespace " + namespace);
+    long listedAt = System.currentTimeMillis();
+    Set<String> buildConfigNames = new HashSet<String>();
+    for (WorkflowJob job : jobs) {
+      buildConfigNames.add(job.getProperty(BuildConfigProjectProperty.class).getName());
+    }
+    Set<String> buildUids;
+    try {
+      buildUids = listBuildConfigBuildUids(namespace, buildConfigNames);
+    } catch (Exception e) {
+      logger.log(WARNING, "Failed to list builds of namespace " + namespace + ", not reconciling its job runs", e);
+      return;
+    }
 
+    for (WorkflowJob job : jobs) {
       for (WorkflowRun run : job.getBuilds()) {
-        boolean found = false;
         BuildCause cause = run.getCause(BuildCause.class);
-        for (Build build : buildList.getItems()) {
-          if (cause != null && cause.getUid().equals(build.getMetadata().getUid())) {
-            found = true;
-            break;
-          }
+        if (cause != null && buildUids.contains(cause.getUid())) {
+          continue;
         }
-        if (!found) {
-          deleteRun(run);
+        if (run.getTimeInMillis() >= listedAt) {
+          // scheduled after the list was taken, its build may not be in it
+          continue;
         }
+        deleteRun(run);
       }
     }
   }
 
+  // the UIDs of the builds of the namespace which were created from one of
+  // the given BuildConfigs; the namespace is listed once rather than once per
+  // BuildConfig, and the UIDs of other builds are not kept
+  private static Set<String> listBuildConfigBuildUids(String namespace, final Set<String> buildConfigNames) {
+    final Set<String> uids = new HashSet<String>();
+    Listable<BuildList> lister = getAuthenticatedOpenShiftClient().builds()
+        .inNamespace(namespace).withLabel(OPENSHIFT_LABELS_BUILD_CONFIG_NAME);
+    listPages(namespace, lister, new PageHandler<Build>() {
+      @Override
+      public void onPage(List<Build> builds) {
+        for (Build build : builds) {
+          // the annotation holds the full name, the label may be truncated
+          String buildConfigName = getAnnotation(build, BUILDCONFIG_NAME);
+          if (buildConfigName == null) {
+            buildConfigName = build.getMetadata().getLabels().get(OPENSHIFT_LABELS_BUILD_CONFIG_NAME);
+          }
+          if (buildConfigNames.contains(buildConfigName)) {
+            uids.add(build.getMetadata().getUid());
+          }
+        }
+      }
+    });
+    return uids;
+  }
+
 }
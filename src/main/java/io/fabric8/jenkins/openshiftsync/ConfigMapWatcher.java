@@ -18,17 +18,21 @@ package io.fabric8.jenkins.openshiftsync;
 import com.thoughtworks.xstream.XStreamException;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.Util;
 import hudson.triggers.SafeTimerTask;
 import hudson.util.XStream2;
 import io.fabric8.kubernetes.api.model.ConfigMap;
-import io.fabric8.kubernetes.api.model.ConfigMapList;
 import io.fabric8.kubernetes.client.Watcher.Action;
-import io.fabric8.openshift.api.model.ImageStreamTag;
 
+import org.apache.commons.lang.StringUtils;
 import org.csanchez.jenkins.plugins.kubernetes.PodTemplate;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -43,6 +47,18 @@ import static java.util.logging.Level.WARNING;
 public class ConfigMapWatcher extends BaseWatcher {
     private final Logger logger = Logger.getLogger(getClass().getName());
 
+    // XStream instances are thread safe once set up, so all the config maps
+    // share one
+    private static final XStream2 XSTREAM = new XStream2();
+
+    // the pod templates parsed from each key of each config map, by config
+    // map UID and key, along with the digest of the XML they came from
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, ParsedPodTemplate>> parsedPodTemplates = new ConcurrentHashMap<String, ConcurrentHashMap<String, ParsedPodTemplate>>();
+
+    // the imagestreamtag: references of the pod templates of each config
+    // map, by config map UID
+    private final ConcurrentHashMap<String, ImageStreamTagRefs> imageStreamTagRefs = new ConcurrentHashMap<String, ImageStreamTagRefs>();
+
     @SuppressFBWarnings("EI_EXPOSE_REP2")
     public ConfigMapWatcher(String[] namespaces) {
         super(namespaces);
@@ -62,23 +78,33 @@ public class ConfigMapWatcher extends BaseWatcher {
                     return;
                 }
                 for (String namespace : namespaces) {
-                    ConfigMapList configMaps = null;
+                    if (!needsRelist(namespace)) {
+                        logger.fine("ConfigMap watch for namespace " + namespace + " is active, skipping relist");
+                        continue;
+                    }
+                    String listResourceVersion = null;
                     try {
                         logger.fine("listing ConfigMap resources");
-                        configMaps = getAuthenticatedOpenShiftClient()
-                                .configMaps().inNamespace(namespace).list();
-                        onInitialConfigMaps(configMaps);
+                        listResourceVersion = listNamespace(namespace,
+                                getAuthenticatedOpenShiftClient()
+                                .configMaps().inNamespace(namespace)
+                                .withLabel(Constants.OPENSHIFT_LABELS_SLAVE_ROLE, Constants.VALUE_SLAVE_ROLE), true,
+                                new PageHandler<ConfigMap>() {
+                                    @Override
+                                    public void onPage(List<ConfigMap> items) {
+                                        onInitialConfigMaps(items);
+                                    }
+                                });
                         logger.fine("handled ConfigMap resources");
                     } catch (Exception e) {
                         logger.log(SEVERE, "Failed to load ConfigMaps: " + e, e);
                     }
                     try {
                         String resourceVersion = "0";
-                        if (configMaps == null) {
+                        if (listResourceVersion == null) {
                             logger.warning("Unable to get config map list; impacts resource version used for watch");
                         } else {
-                            resourceVersion = configMaps.getMetadata()
-                                    .getResourceVersion();
+                            resourceVersion = listResourceVersion;
                         }
                         if (watches.get(namespace) == null) {
                             logger.info("creating ConfigMap watch for namespace "
@@ -89,6 +115,8 @@ public class ConfigMapWatcher extends BaseWatcher {
                                     getAuthenticatedOpenShiftClient()
                                     .configMaps()
                                     .inNamespace(namespace)
+                                    .withLabel(Constants.OPENSHIFT_LABELS_SLAVE_ROLE,
+                                            Constants.VALUE_SLAVE_ROLE)
                                     .withResourceVersion(
                                             resourceVersion)
                                             .watch(new WatcherCallback<ConfigMap>(ConfigMapWatcher.this,namespace)));
@@ -109,6 +137,15 @@ public class ConfigMapWatcher extends BaseWatcher {
 
     public void eventReceived(Action action, ConfigMap configMap) {
         try {
+            // the list and watch only return labeled config maps, but when the
+            // label is removed the server reports the config map one last
+            // time (as deleted); only a config map we hold pod templates for
+            // needs any further work
+            if (!containsSlave(configMap) && (trackedPodTemplates == null
+                    || !trackedPodTemplates.containsKey(configMap.getMetadata().getUid()))) {
+                logger.fine("ignoring unlabeled ConfigMap " + configMap.getMetadata().getName());
+                return;
+            }
             List<PodTemplate> slavesFromCM = podTemplatesFromConfigMap(configMap);
             boolean hasSlaves = slavesFromCM.size() > 0;
             String uid = configMap.getMetadata().getUid();
@@ -127,6 +164,7 @@ public class ConfigMapWatcher extends BaseWatcher {
 
             case DELETED:
                 this.processSlavesForDeleteEvent(slavesFromCM, cmType, uid, cmname, namespace);
+                evictParsedPodTemplates(uid);
                 break;
 
             case ERROR:
@@ -147,31 +185,31 @@ public class ConfigMapWatcher extends BaseWatcher {
         eventReceived(action, cfgmap);
     }
 
-    private void onInitialConfigMaps(ConfigMapList configMaps) {
-        if (configMaps == null)
+    private void onInitialConfigMaps(List<ConfigMap> items) {
+        if (items == null)
             return;
         if (trackedPodTemplates == null) {
-            trackedPodTemplates = new ConcurrentHashMap<>(configMaps.getItems()
-                    .size());
+            trackedPodTemplates = new ConcurrentHashMap<>(items.size());
         }
-        List<ConfigMap> items = configMaps.getItems();
-        if (items != null) {
-            for (ConfigMap configMap : items) {
-                try {
-                    if (containsSlave(configMap)
-                            && !trackedPodTemplates.containsKey(configMap
-                                    .getMetadata().getUid())) {
-                        List<PodTemplate> templates = podTemplatesFromConfigMap(configMap);
-                        trackedPodTemplates.put(configMap.getMetadata().getUid(),
-                                templates);
-                        for (PodTemplate podTemplate : templates) {
-                            JenkinsUtils.addPodTemplate(podTemplate);
-                        }
+        for (ConfigMap configMap : items) {
+            try {
+                String uid = configMap.getMetadata().getUid();
+                if (trackedPodTemplates.containsKey(uid)) {
+                    // a relist after a lost watch can surface changes to
+                    // config maps we already track, including the removal
+                    // of the slave label
+                    processSlavesForModifyEvent(podTemplatesFromConfigMap(configMap), cmType, uid,
+                            configMap.getMetadata().getName(), configMap.getMetadata().getNamespace());
+                } else if (containsSlave(configMap)) {
+                    List<PodTemplate> templates = podTemplatesFromConfigMap(configMap);
+                    trackedPodTemplates.put(uid, templates);
+                    for (PodTemplate podTemplate : templates) {
+                        JenkinsUtils.addPodTemplate(podTemplate);
                     }
-                } catch (Exception e) {
-                    logger.log(SEVERE,
-                            "Failed to update ConfigMap PodTemplates", e);
                 }
+            } catch (Exception e) {
+                logger.log(SEVERE,
+                        "Failed to update ConfigMap PodTemplates", e);
             }
         }
     }
@@ -190,23 +228,136 @@ public class ConfigMapWatcher extends BaseWatcher {
     private static final int SPECIAL_IST_PREFIX_IDX = SPECIAL_IST_PREFIX
             .length();
 
+    /**
+     * Drops the parsed pod templates of a config map
+     */
+    void evictParsedPodTemplates(String uid) {
+        parsedPodTemplates.remove(uid);
+        imageStreamTagRefs.remove(uid);
+    }
+
+    private void trackImageStreamTag(ConfigMap configMap, String namespace, String istName, String image) {
+        String uid = configMap.getMetadata().getUid();
+        ImageStreamTagRefs refs = imageStreamTagRefs.get(uid);
+        if (refs == null) {
+            ImageStreamTagRefs newRefs = new ImageStreamTagRefs(configMap.getMetadata().getNamespace(),
+                    configMap.getMetadata().getName());
+            refs = imageStreamTagRefs.putIfAbsent(uid, newRefs);
+            if (refs == null) {
+                refs = newRefs;
+            }
+        }
+        refs.images.put(namespace + "/" + istName, image != null ? image : "");
+    }
+
+    /**
+     * Called once the image stream watcher has handled a change to an image
+     * stream; config maps with an imagestreamtag: reference to one of its tags
+     * which now resolves to another image are handled again.
+     *
+     * @param namespace
+     *            the namespace of the image stream
+     * @param isName
+     *            the name of the image stream
+     */
+    void onImageStreamChanged(String namespace, String isName) {
+        String prefix = namespace + "/" + isName + ":";
+        for (Map.Entry<String, ImageStreamTagRefs> entry : imageStreamTagRefs.entrySet()) {
+            ImageStreamTagRefs refs = entry.getValue();
+            for (Map.Entry<String, String> ref : refs.images.entrySet()) {
+                if (!ref.getKey().startsWith(prefix)) {
+                    continue;
+                }
+                String image = ImageStreamWatcher.resolveImageStreamTag(namespace,
+                        ref.getKey().substring(namespace.length() + 1));
+                if (!StringUtils.equals(ref.getValue(), image != null ? image : "")) {
+                    ConfigMap configMap = (ConfigMap) cache.get(refs.namespace, refs.name);
+                    if (configMap != null && entry.getKey().equals(configMap.getMetadata().getUid())) {
+                        logger.info("ImageStreamTag " + ref.getKey() + " now points at " + image
+                                + ", updating the pod templates of ConfigMap " + refs.namespace + "/" + refs.name);
+                        redispatch(configMap);
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    // this is called from an event handler, which must not wait for room in
+    // the dispatcher
+    private void redispatch(ConfigMap configMap) {
+        dispatchAsync(Action.MODIFIED, configMap);
+    }
+
+    private static final class ImageStreamTagRefs {
+        private final String namespace;
+        private final String name;
+        // "namespace/name:tag" -> the image it resolved to, or "" if none
+        private final ConcurrentHashMap<String, String> images = new ConcurrentHashMap<String, String>();
+
+        private ImageStreamTagRefs(String namespace, String name) {
+            this.namespace = namespace;
+            this.name = name;
+        }
+    }
+
+    private static String sha256(String value) {
+        try {
+            return Util.toHexString(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // every JRE provides SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class ParsedPodTemplate {
+        private final String digest;
+        private final PodTemplate podTemplate;
+
+        private ParsedPodTemplate(String digest, PodTemplate podTemplate) {
+            this.digest = digest;
+            this.podTemplate = podTemplate;
+        }
+    }
+
     // podTemplatesFromConfigMap takes every key from a ConfigMap and tries to
     // create a PodTemplate from the contained
     // XML.
     public List<PodTemplate> podTemplatesFromConfigMap(ConfigMap configMap) {
         List<PodTemplate> results = new ArrayList<>();
         Map<String, String> data = configMap.getData();
+        String uid = configMap.getMetadata().getUid();
         
         if (!containsSlave(configMap)) {
+            evictParsedPodTemplates(uid);
             return results;
         }
+        // recorded again below for the references the data still has
+        imageStreamTagRefs.remove(uid);
+        if (data == null) {
+            data = Collections.emptyMap();
+        }
 
-        XStream2 xStream2 = new XStream2();
+        ConcurrentHashMap<String, ParsedPodTemplate> parsed = parsedPodTemplates.get(uid);
+        if (parsed == null) {
+            ConcurrentHashMap<String, ParsedPodTemplate> newParsed = new ConcurrentHashMap<String, ParsedPodTemplate>();
+            parsed = parsedPodTemplates.putIfAbsent(uid, newParsed);
+            if (parsed == null) {
+                parsed = newParsed;
+            }
+        }
+        parsed.keySet().retainAll(data.keySet());
 
         for (Entry<String, String> entry : data.entrySet()) {
+            String digest = sha256(entry.getValue());
+            ParsedPodTemplate cached = parsed.get(entry.getKey());
+            if (cached != null && cached.digest.equals(digest)) {
+                results.add(cached.podTemplate);
+                continue;
+            }
             Object podTemplate;
             try {
-                podTemplate = xStream2.fromXML(entry.getValue());
+                podTemplate = XSTREAM.fromXML(entry.getValue());
 
                 String warningPrefix = "Content of key '" + entry.getKey()
                         + "' in ConfigMap '"
@@ -215,6 +366,11 @@ public class ConfigMapWatcher extends BaseWatcher {
                     PodTemplate pt = (PodTemplate) podTemplate;
 
                     String image = pt.getImage();
+                    // the image of an imagestreamtag: reference is looked up
+                    // anew each time, anything else only depends on the XML
+                    if (image == null || !image.startsWith(SPECIAL_IST_PREFIX)) {
+                        parsed.put(entry.getKey(), new ParsedPodTemplate(digest, pt));
+                    }
                     try {
                         // if requested via special prefix, convert this images
                         // entry field, if not already fully qualified, as if
@@ -233,29 +389,24 @@ public class ConfigMapWatcher extends BaseWatcher {
                                         image, "/");
                                 boolean hasTag = hasOneAndOnlyOneWithSomethingAfter(
                                         image, ":");
-                                String namespace = getAuthenticatedOpenShiftClient()
-                                        .getNamespace();
+                                String namespace;
                                 String isName = image;
                                 String newImage = null;
                                 if (hasNamespace) {
                                     String[] parts = image.split("/");
                                     namespace = parts[0];
                                     isName = parts[1];
+                                } else {
+                                    namespace = getAuthenticatedOpenShiftClient()
+                                            .getNamespace();
                                 }
                                 if (hasTag) {
-                                    ImageStreamTag ist = getAuthenticatedOpenShiftClient()
-                                            .imageStreamTags()
-                                            .inNamespace(namespace)
-                                            .withName(isName).get();
-                                    if (ist != null
-                                            && ist.getImage() != null
-                                            && ist.getImage()
-                                                    .getDockerImageReference() != null
-                                            && ist.getImage()
-                                                    .getDockerImageReference()
-                                                    .length() > 0) {
-                                        newImage = ist.getImage()
-                                                .getDockerImageReference();
+                                    String resolved = ImageStreamWatcher.resolveImageStreamTag(namespace, isName);
+                                    // remembered so the template is rebuilt
+                                    // when the tag moves to another image
+                                    trackImageStreamTag(configMap, namespace, isName, resolved);
+                                    if (resolved != null) {
+                                        newImage = resolved;
                                         logger.fine(String
                                                 .format("Converting image ref %s as an imagestreamtag %s to fully qualified image %s",
                                                         image, isName, newImage));
@@ -39,6 +39,9 @@ public class Constants {
     // so we avoid use of "/" for this label
     public static final String OPENSHIFT_LABELS_SECRET_CREDENTIAL_SYNC = "credential.sync.jenkins.openshift.io";
     public static final String VALUE_SECRET_SYNC = "true";
+    // label marking config maps and image streams whose content describes pod templates
+    public static final String OPENSHIFT_LABELS_SLAVE_ROLE = "role";
+    public static final String VALUE_SLAVE_ROLE = "jenkins-slave";
 
     public static final String OPENSHIFT_SECRETS_DATA_USERNAME = "username";
     public static final String OPENSHIFT_SECRETS_DATA_PASSWORD = "password";
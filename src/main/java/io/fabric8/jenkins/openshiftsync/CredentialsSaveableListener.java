@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2017 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.fabric8.jenkins.openshiftsync;
+
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+
+import java.util.logging.Logger;
+
+/**
+ * Drops the cached OpenShift token whenever the global credentials are saved,
+ * so an updated or removed token is picked up by the next API call
+ */
+@Extension
+public class CredentialsSaveableListener extends SaveableListener {
+    private static final Logger logger = Logger.getLogger(CredentialsSaveableListener.class.getName());
+
+    @Override
+    public void onChange(Saveable o, XmlFile file) {
+        if (o instanceof SystemCredentialsProvider) {
+            logger.fine("global credentials saved, invalidating the cached OpenShift token");
+            CredentialsUtils.invalidateCurrentToken();
+        }
+    }
+}
@@ -14,6 +14,7 @@ import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.openshift.jenkins.plugins.OpenShiftTokenCredentials;
+import hudson.XmlFile;
 import hudson.model.Fingerprint;
 import hudson.remoting.Base64;
 import hudson.security.ACL;
@@ -27,9 +28,11 @@ import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.plugins.plaincredentials.impl.FileCredentialsImpl;
 import org.jenkinsci.plugins.plaincredentials.impl.StringCredentialsImpl;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
@@ -44,7 +47,14 @@ public class CredentialsUtils {
 
   private final static Logger logger = Logger.getLogger(CredentialsUtils.class.getName());
   public static final String KUBERNETES_SERVICE_ACCOUNT = "Kubernetes Service Account";
-  public static ConcurrentHashMap<String, String> uidToSecretNameMap;
+  // secret uid -> id of the credential synced from it; kept under
+  // JENKINS_HOME as a secret watch resumed after a restart does not see the
+  // secrets again, and the old id is needed once a secret's custom name
+  // changes
+  public static volatile ConcurrentHashMap<String, String> uidToSecretNameMap;
+
+  private static final long CURRENT_TOKEN_TTL_MS = 5 * 60 * 1000;
+  private static volatile CurrentToken currentToken;
 
 
   public static Secret getSourceCredentials(BuildConfig buildConfig) {
@@ -126,9 +136,7 @@ public class CredentialsUtils {
     }
 
     private static String upsertCredential(Secret secret, String namespace, String secretName) throws IOException {
-      if (uidToSecretNameMap == null){
-        uidToSecretNameMap = new ConcurrentHashMap<String, String>();
-      }
+      loadUidToSecretNameMap();
         String customSecretName = getSecretCustomName(secret);
         if (secret != null) {
           Credentials creds = secretToCredentials(secret);
@@ -158,14 +166,14 @@ public class CredentialsUtils {
                   } else if (existingOriginalCreds != null) {
                     s.removeCredentials(Domain.global(), existingOriginalCreds);
                   }
-                  uidToSecretNameMap.put(secretUid, id);
+                  rememberCredentialId(secretUid, id);
                   secretNamespaceName = NamespaceName.create(secret);
                   logger.info("Updated credential " + oldId + " with new Id " + id + " from Secret " + secretNamespaceName + " with revision: " + metadata.getResourceVersion());
                 }
               } else {
                 if (existingCreds != null) {
                   s.updateCredentials(Domain.global(), existingCreds, creds);
-                  uidToSecretNameMap.put(secretUid, id);
+                  rememberCredentialId(secretUid, id);
                   secretNamespaceName = NamespaceName.create(secret);
                   logger.info("Updated credential " + id + " from Secret " + secretNamespaceName + " with revision: " + metadata.getResourceVersion());
                 } else {
@@ -173,7 +181,7 @@ public class CredentialsUtils {
                   if (!hasAddedCredential) {
                     logger.warning("Update failed for secret with new Id " + id + " from Secret " + secretNamespaceName + " with revision: " + metadata.getResourceVersion());
                   } else {
-                    uidToSecretNameMap.put(secretUid, id);
+                    rememberCredentialId(secretUid, id);
                     secretNamespaceName = NamespaceName.create(secret);
                     logger.info("Created credential " + id + " from Secret " + secretNamespaceName + " with revision: " + metadata.getResourceVersion());
                   }
@@ -221,29 +229,101 @@ public class CredentialsUtils {
         if (secret != null) {
             String id = generateCredentialsName(secret.getMetadata().getNamespace(), secret.getMetadata().getName(), getSecretCustomName(secret));
             deleteCredential(id, NamespaceName.create(secret), secret.getMetadata().getResourceVersion());
+            loadUidToSecretNameMap();
+            if (secret.getMetadata().getUid() != null && uidToSecretNameMap.remove(secret.getMetadata().getUid()) != null) {
+                saveUidToSecretNameMap();
+            }
+        }
+    }
+
+    private static void rememberCredentialId(String secretUid, String id) {
+        if (secretUid != null && !id.equals(uidToSecretNameMap.put(secretUid, id))) {
+            saveUidToSecretNameMap();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static synchronized void loadUidToSecretNameMap() {
+        if (uidToSecretNameMap != null) {
+            return;
+        }
+        ConcurrentHashMap<String, String> map = new ConcurrentHashMap<String, String>();
+        XmlFile file = getUidToSecretNameFile();
+        if (file != null && file.exists()) {
+            try {
+                map.putAll((Map<String, String>) file.read());
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to read the credential ids of synced secrets from " + file, e);
+            }
+        }
+        uidToSecretNameMap = map;
+    }
+
+    private static synchronized void saveUidToSecretNameMap() {
+        XmlFile file = getUidToSecretNameFile();
+        if (file == null) {
+            return;
+        }
+        try {
+            file.write(new HashMap<String, String>(uidToSecretNameMap));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to save the credential ids of synced secrets to " + file, e);
         }
     }
 
+    private static XmlFile getUidToSecretNameFile() {
+        // pedantic mvn:findbugs
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return null;
+        }
+        return new XmlFile(Jenkins.XSTREAM2, new File(jenkins.getRootDir(), CredentialsUtils.class.getName() + "-secretIds.xml"));
+    }
+
     // getCurrentToken returns the ServiceAccount token currently selected by
     // the user. A return value of empty string
     // implies no token is configured.
+    // The result is cached for the configured credentialsId until the
+    // credentials are saved (see CredentialsSaveableListener), or at most
+    // CURRENT_TOKEN_TTL_MS for stores which do not go through a save.
     public static String getCurrentToken() {
         String credentialsId = GlobalPluginConfiguration.get().getCredentialsId();
         if (credentialsId.equals("")) {
             return "";
         }
 
+        CurrentToken cached = currentToken;
+        if (cached != null && cached.credentialsId.equals(credentialsId)
+                && System.currentTimeMillis() - cached.lookedUpAt < CURRENT_TOKEN_TTL_MS) {
+            return cached.token;
+        }
+
         OpenShiftToken token = CredentialsMatchers
                 .firstOrNull(
                         CredentialsProvider.lookupCredentials(OpenShiftToken.class, Jenkins.getActiveInstance(),
                                 ACL.SYSTEM, Collections.<DomainRequirement>emptyList()),
                         CredentialsMatchers.withId(credentialsId));
 
-        if (token != null) {
-            return token.getToken();
-        }
+        String value = token != null ? token.getToken() : "";
+        currentToken = new CurrentToken(credentialsId, value);
+        return value;
+    }
 
-        return "";
+    // drops the cached token so the next getCurrentToken looks it up again
+    public static void invalidateCurrentToken() {
+        currentToken = null;
+    }
+
+    private static final class CurrentToken {
+        private final String credentialsId;
+        private final String token;
+        private final long lookedUpAt;
+
+        private CurrentToken(String credentialsId, String token) {
+            this.credentialsId = credentialsId;
+            this.token = token;
+            this.lookedUpAt = System.currentTimeMillis();
+        }
     }
 
     private static Credentials lookupCredentials(String id) {
@@ -0,0 +1,315 @@
+/**
+ * Copyright (C) 2017 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.fabric8.jenkins.openshiftsync;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the handlers of watch events off the websocket threads of the
+ * OpenShift client. Events with the same key (normally the UID of the object)
+ * are handled one at a time in the order they arrived; events with different
+ * keys are handled in parallel on a fixed number of threads, so one slow
+ * handler (a job deletion, a config save) only holds up later events for the
+ * same object.
+ *
+ * An event which only carries a newer state of an object (a MODIFIED event)
+ * replaces a MODIFIED event of the same object still waiting at the end of
+ * the queue, so a burst of updates is handled once, with the latest state,
+ * without moving ahead of anything queued after it.
+ *
+ * The number of events waiting is bounded: once the limit is reached the
+ * watch thread delivering the next event blocks until a handler completes,
+ * which in turn stops the client reading further events off the socket.
+ * Events which do not come from a watch thread are handed over through a
+ * dedicated thread instead, so threads shared with the rest of Jenkins never
+ * wait for room.
+ */
+public class EventDispatcher {
+
+    private static final Logger logger = Logger.getLogger(EventDispatcher.class.getName());
+
+    static final int THREADS = Integer.getInteger(EventDispatcher.class.getName() + ".threads", 4);
+    static final int MAX_PENDING = Integer.getInteger(EventDispatcher.class.getName() + ".maxPending", 10000);
+
+    // log the queue depth at most this often while it stays above half the
+    // limit
+    private static final long DEPTH_LOG_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final EventDispatcher instance = new EventDispatcher(THREADS, MAX_PENDING);
+
+    private final ExecutorService executor;
+    // waits for room on behalf of the callers of dispatchAsync
+    private final ExecutorService feeder;
+    private final Semaphore capacity;
+    private final int maxPending;
+
+    // events waiting or running, by key; a key is present while a worker is
+    // draining its queue
+    private final Map<String, Deque<Event>> queues = new HashMap<String, Deque<Event>>();
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger peakPending = new AtomicInteger();
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private volatile long lastDepthLog;
+
+    EventDispatcher(int threads, int maxPending) {
+        this.maxPending = maxPending;
+        this.capacity = new Semaphore(maxPending);
+        this.executor = Executors.newFixedThreadPool(threads,
+                new NamingThreadFactory(new DaemonThreadFactory(), "OpenShift watch event dispatcher"));
+        this.feeder = Executors.newSingleThreadExecutor(
+                new NamingThreadFactory(new DaemonThreadFactory(), "OpenShift watch event feeder"));
+    }
+
+    static EventDispatcher get() {
+        return instance;
+    }
+
+    /**
+     * Queues the handling of an event behind the earlier events with the same
+     * key, blocking while the dispatcher is full
+     *
+     * @param key
+     *            the ordering key, usually the UID of the object
+     * @param task
+     *            the handler to run
+     */
+    void dispatch(String key, Runnable task) {
+        dispatch(key, null, false, task);
+    }
+
+    /**
+     * Queues the handling of an event behind the earlier events with the same
+     * key, blocking while the dispatcher is full. If the event supersedes
+     * earlier ones and the last waiting event of the key is a superseding
+     * event of the same object, that event is replaced instead.
+     *
+     * @param key
+     *            the ordering key, usually the UID of the object
+     * @param uid
+     *            the UID of the object the event is about
+     * @param supersedes
+     *            true if the event makes a waiting event of the same kind for
+     *            the same object obsolete
+     * @param task
+     *            the handler to run
+     * @return false if the event replaced a waiting one instead of being
+     *         queued
+     */
+    boolean dispatch(String key, String uid, boolean supersedes, Runnable task) {
+        if (supersedes && uid != null && replaceWaiting(key, uid, task)) {
+            coalesced.incrementAndGet();
+            return false;
+        }
+        if (!capacity.tryAcquire()) {
+            blocked.incrementAndGet();
+            logger.warning("Watch event dispatcher is full with " + pending.get()
+                    + " pending events; delaying further watch events");
+            capacity.acquireUninterruptibly();
+        }
+        int depth = pending.incrementAndGet();
+        recordDepth(depth);
+        dispatched.incrementAndGet();
+        boolean start;
+        synchronized (queues) {
+            Deque<Event> queue = queues.get(key);
+            start = queue == null;
+            if (start) {
+                queue = new ArrayDeque<Event>();
+                queues.put(key, queue);
+            }
+            queue.add(new Event(uid, supersedes, task));
+        }
+        if (start) {
+            executor.execute(new Drainer(key));
+        }
+        return true;
+    }
+
+    /**
+     * Queues the handling of an event like
+     * {@link #dispatch(String, String, boolean, Runnable)}, but never blocks
+     * the calling thread; when the dispatcher is full a dedicated thread
+     * waits for room. For events which do not come from a watch thread, such
+     * as those sent from a timer or from an event handler.
+     *
+     * @param onCoalesced
+     *            run instead of the task if the event replaced a waiting one;
+     *            may be null if the event does not supersede earlier ones
+     */
+    void dispatchAsync(final String key, final String uid, final boolean supersedes, final Runnable task,
+            final Runnable onCoalesced) {
+        feeder.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!dispatch(key, uid, supersedes, task) && onCoalesced != null) {
+                    onCoalesced.run();
+                }
+            }
+        });
+    }
+
+    // only the last waiting event of the key can take the new handler, and
+    // only if it is a superseding event of the same object; replacing one
+    // further back would run the new state ahead of the events queued after
+    // it, such as those of other builds of the same build config
+    private boolean replaceWaiting(String key, String uid, Runnable task) {
+        synchronized (queues) {
+            Deque<Event> queue = queues.get(key);
+            if (queue == null) {
+                return false;
+            }
+            Event last = queue.peekLast();
+            if (last == null || !last.supersedes || !uid.equals(last.uid)) {
+                return false;
+            }
+            last.task = task;
+            return true;
+        }
+    }
+
+    private void recordDepth(int depth) {
+        int peak = peakPending.get();
+        while (depth > peak && !peakPending.compareAndSet(peak, depth)) {
+            peak = peakPending.get();
+        }
+        if (depth > maxPending / 2) {
+            long now = System.currentTimeMillis();
+            if (now - lastDepthLog > DEPTH_LOG_INTERVAL_MS) {
+                lastDepthLog = now;
+                logger.info("Watch event dispatcher backlog: " + this);
+            }
+        }
+    }
+
+    /**
+     * The number of events waiting to be handled or being handled
+     */
+    int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * The highest number of pending events seen since startup
+     */
+    int getPeakPending() {
+        return peakPending.get();
+    }
+
+    /**
+     * The number of objects with events waiting to be handled or being handled
+     */
+    int getPendingKeys() {
+        synchronized (queues) {
+            return queues.size();
+        }
+    }
+
+    long getDispatched() {
+        return dispatched.get();
+    }
+
+    long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * The number of events dropped because a newer event of the same object
+     * replaced them before they were handled
+     */
+    long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * The number of times a watch thread had to wait for room in the
+     * dispatcher
+     */
+    long getBlocked() {
+        return blocked.get();
+    }
+
+    @Override
+    public String toString() {
+        return "pending=" + getPending() + " (limit " + maxPending + "), objects=" + getPendingKeys()
+                + ", peak=" + getPeakPending() + ", dispatched=" + getDispatched() + ", completed="
+                + getCompleted() + ", coalesced=" + getCoalesced() + ", blocked=" + getBlocked();
+    }
+
+    private static final class Event {
+        private final String uid;
+        private final boolean supersedes;
+        // replaced while waiting when a newer state of the object arrives
+        private Runnable task;
+
+        private Event(String uid, boolean supersedes, Runnable task) {
+            this.uid = uid;
+            this.supersedes = supersedes;
+            this.task = task;
+        }
+    }
+
+    // handles the events of one key until its queue is empty
+    private class Drainer implements Runnable {
+        private final String key;
+
+        private Drainer(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task;
+                synchronized (queues) {
+                    Deque<Event> queue = queues.get(key);
+                    Event event = queue.poll();
+                    if (event == null) {
+                        queues.remove(key);
+                        return;
+                    }
+                    task = event.task;
+                }
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    logger.log(Level.WARNING, "Failed to handle watch event for " + key, t);
+                } finally {
+                    pending.decrementAndGet();
+                    completed.incrementAndGet();
+                    capacity.release();
+                }
+            }
+        }
+    }
+}
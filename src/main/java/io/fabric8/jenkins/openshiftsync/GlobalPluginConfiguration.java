@@ -57,6 +57,7 @@ public class GlobalPluginConfiguration extends GlobalConfiguration {
     private int secretListInterval = 300;
     private int configMapListInterval = 300;
     private int imageStreamListInterval = 300;
+    private int listPageSize = 500;
 
     private transient BuildWatcher buildWatcher;
     private transient BuildConfigWatcher buildConfigWatcher;
@@ -68,7 +69,7 @@ public class GlobalPluginConfiguration extends GlobalConfiguration {
     public GlobalPluginConfiguration(boolean enable, String server, String namespace, boolean foldersEnabled,
             String credentialsId, String jobNamePattern, String skipOrganizationPrefix, String skipBranchSuffix,
             int buildListInterval, int buildConfigListInterval, int configMapListInterval, int secretListInterval,
-            int imageStreamListInterval) {
+            int imageStreamListInterval, int listPageSize) {
         this.enabled = enable;
         this.server = server;
         this.namespaces = StringUtils.isBlank(namespace) ? null : namespace.split(" ");
@@ -82,6 +83,7 @@ public class GlobalPluginConfiguration extends GlobalConfiguration {
         this.configMapListInterval = configMapListInterval;
         this.secretListInterval = secretListInterval;
         this.imageStreamListInterval = imageStreamListInterval;
+        this.listPageSize = listPageSize;
         configChange();
     }
 
@@ -231,6 +233,22 @@ public class GlobalPluginConfiguration extends GlobalConfiguration {
         this.imageStreamListInterval = imageStreamListInterval;
     }
 
+    public int getListPageSize() {
+        return listPageSize;
+    }
+
+    public void setListPageSize(int listPageSize) {
+        this.listPageSize = listPageSize;
+    }
+
+    /**
+     * The queue depth and counters of the watch event dispatcher, shown on
+     * the configuration page
+     */
+    public String getEventDispatcherStatus() {
+        return EventDispatcher.get().toString();
+    }
+
     String[] getNamespaces() {
         return namespaces;
     }
@@ -243,10 +261,22 @@ public class GlobalPluginConfiguration extends GlobalConfiguration {
         this.buildWatcher = buildWatcher;
     }
 
+    BuildConfigWatcher getBuildConfigWatcher() {
+        return buildConfigWatcher;
+    }
+
     void setBuildConfigWatcher(BuildConfigWatcher buildConfigWatcher) {
         this.buildConfigWatcher = buildConfigWatcher;
     }
 
+    ConfigMapWatcher getConfigMapWatcher() {
+        return configMapWatcher;
+    }
+
+    ImageStreamWatcher getImageStreamWatcher() {
+        return imageStreamWatcher;
+    }
+
     void setSecretWatcher(SecretWatcher secretWatcher) {
         this.secretWatcher = secretWatcher;
     }
@@ -282,6 +312,9 @@ public class GlobalPluginConfiguration extends GlobalConfiguration {
         this.imageStreamWatcher = null;
         this.secretWatcher = null;
         OpenShiftUtils.shutdownOpenShiftClient();
+        CredentialsUtils.invalidateCurrentToken();
+        JenkinsUtils.invalidateMasterPodInfo();
+        OpenShiftUtils.invalidateJenkinsURLs();
 
         if (!this.enabled) {
             logger.info("OpenShift Sync Plugin has been disabled");
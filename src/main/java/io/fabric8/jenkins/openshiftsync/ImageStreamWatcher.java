@@ -19,17 +19,23 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.triggers.SafeTimerTask;
 import io.fabric8.kubernetes.client.Watcher.Action;
 import io.fabric8.openshift.api.model.ImageStream;
-import io.fabric8.openshift.api.model.ImageStreamList;
 import io.fabric8.openshift.api.model.ImageStreamTag;
+import io.fabric8.openshift.api.model.NamedTagEventList;
+import io.fabric8.openshift.api.model.TagEvent;
 import io.fabric8.openshift.api.model.TagReference;
 
+import org.apache.commons.lang.StringUtils;
 import org.csanchez.jenkins.plugins.kubernetes.PodTemplate;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.logging.Level;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import static io.fabric8.jenkins.openshiftsync.OpenShiftUtils.getAuthenticatedOpenShiftClient;
@@ -39,6 +45,10 @@ import static java.util.logging.Level.WARNING;
 public class ImageStreamWatcher extends BaseWatcher {
     private final Logger logger = Logger.getLogger(getClass().getName());
 
+    // pod templates built for image stream tags, by namespace/stream and then
+    // stream:tag
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, TagPodTemplate>> tagPodTemplates = new ConcurrentHashMap<String, ConcurrentHashMap<String, TagPodTemplate>>();
+
     @SuppressFBWarnings("EI_EXPOSE_REP2")
     public ImageStreamWatcher(String[] namespaces) {
         super(namespaces);
@@ -58,12 +68,22 @@ public class ImageStreamWatcher extends BaseWatcher {
                     return;
                 }
                 for (String namespace : namespaces) {
-                    ImageStreamList imageStreams = null;
+                    if (!needsRelist(namespace)) {
+                        logger.fine("ImageStream watch for namespace " + namespace + " is active, skipping relist");
+                        continue;
+                    }
+                    String listResourceVersion = null;
                     try {
                         logger.fine("listing ImageStream resources");
-                        imageStreams = getAuthenticatedOpenShiftClient()
-                                .imageStreams().inNamespace(namespace).list();
-                        onInitialImageStream(imageStreams);
+                        listResourceVersion = listNamespace(namespace,
+                                getAuthenticatedOpenShiftClient()
+                                .imageStreams().inNamespace(namespace), true,
+                                new PageHandler<ImageStream>() {
+                                    @Override
+                                    public void onPage(List<ImageStream> items) {
+                                        onInitialImageStream(items);
+                                    }
+                                });
                         logger.fine("handled ImageStream resources");
                     } catch (Exception e) {
                         logger.log(SEVERE, "Failed to load ImageStreams: " + e,
@@ -71,11 +91,10 @@ public class ImageStreamWatcher extends BaseWatcher {
                     }
                     try {
                         String resourceVersion = "0";
-                        if (imageStreams == null) {
+                        if (listResourceVersion == null) {
                             logger.warning("Unable to get image stream list; impacts resource version used for watch");
                         } else {
-                            resourceVersion = imageStreams.getMetadata()
-                                    .getResourceVersion();
+                            resourceVersion = listResourceVersion;
                         }
                         if (watches.get(namespace) == null) {
                             logger.info("creating ImageStream watch for namespace "
@@ -123,6 +142,7 @@ public class ImageStreamWatcher extends BaseWatcher {
 
             case DELETED:
                 processSlavesForDeleteEvent(slavesFromIS, isType, uid, isname, namespace);
+                evictTagPodTemplates(namespace, isname, Collections.<String>emptySet());
                 break;
 
             case ERROR:
@@ -132,6 +152,7 @@ public class ImageStreamWatcher extends BaseWatcher {
                 logger.warning("watch for imageStream " + imageStream.getMetadata().getName() + " received unknown event " + action);
                 break;
             }
+            notifyConfigMapWatcher(namespace, isname);
         } catch (Exception e) {
             logger.log(WARNING, "Caught: " + e, e);
         }
@@ -142,10 +163,7 @@ public class ImageStreamWatcher extends BaseWatcher {
         eventReceived(action, imageStream);
     }
 
-    private void onInitialImageStream(ImageStreamList imageStreams) {
-        if (imageStreams == null)
-            return;
-        List<ImageStream> items = imageStreams.getItems();
+    private void onInitialImageStream(List<ImageStream> items) {
         if (items != null) {
             for (ImageStream imageStream : items) {
                 try {
@@ -158,6 +176,8 @@ public class ImageStreamWatcher extends BaseWatcher {
                             continue;
                         JenkinsUtils.addPodTemplate(entry);
                     }
+                    notifyConfigMapWatcher(imageStream.getMetadata().getNamespace(),
+                            imageStream.getMetadata().getName());
                 } catch (Exception e) {
                     logger.log(SEVERE, "Failed to update job", e);
                 }
@@ -165,6 +185,66 @@ public class ImageStreamWatcher extends BaseWatcher {
         }
     }
 
+    // lets config map pod templates which refer to a tag of the image stream
+    // through the imagestreamtag: prefix pick up a new image
+    private void notifyConfigMapWatcher(String namespace, String isName) {
+        GlobalPluginConfiguration config = GlobalPluginConfiguration.get();
+        ConfigMapWatcher configMapWatcher = config != null ? config.getConfigMapWatcher() : null;
+        if (configMapWatcher != null) {
+            configMapWatcher.onImageStreamChanged(namespace, isName);
+        }
+    }
+
+    /**
+     * Returns the docker image reference an image stream tag currently points
+     * at. Tags of image streams in a namespace this plugin watches are looked
+     * up in the watcher's cache; others are fetched from the API server.
+     *
+     * @param namespace
+     *            the namespace of the image stream
+     * @param istName
+     *            the image stream tag, as name:tag
+     * @return the docker image reference, or null if the tag does not exist
+     *         or has no image yet
+     */
+    static String resolveImageStreamTag(String namespace, String istName) {
+        GlobalPluginConfiguration config = GlobalPluginConfiguration.get();
+        ImageStreamWatcher watcher = config != null ? config.getImageStreamWatcher() : null;
+        if (watcher != null && watcher.isWatching(namespace)) {
+            int colon = istName.indexOf(':');
+            if (colon < 0) {
+                return null;
+            }
+            ImageStream imageStream = (ImageStream) watcher.cache.get(namespace, istName.substring(0, colon));
+            return latestDockerImageReference(imageStream, istName.substring(colon + 1));
+        }
+        ImageStreamTag ist = getAuthenticatedOpenShiftClient().imageStreamTags().inNamespace(namespace)
+                .withName(istName).get();
+        if (ist == null || ist.getImage() == null || StringUtils.isEmpty(ist.getImage().getDockerImageReference())) {
+            return null;
+        }
+        return ist.getImage().getDockerImageReference();
+    }
+
+    // the cache is only complete for a namespace once it has been listed and
+    // is being watched
+    private boolean isWatching(String namespace) {
+        return Arrays.asList(namespaces).contains(namespace) && !needsRelist(namespace);
+    }
+
+    private static String latestDockerImageReference(ImageStream imageStream, String tag) {
+        if (imageStream == null || imageStream.getStatus() == null || imageStream.getStatus().getTags() == null) {
+            return null;
+        }
+        for (NamedTagEventList tagHistory : imageStream.getStatus().getTags()) {
+            if (tag.equals(tagHistory.getTag()) && tagHistory.getItems() != null
+                    && tagHistory.getItems().size() > 0) {
+                return StringUtils.trimToNull(tagHistory.getItems().get(0).getDockerImageReference());
+            }
+        }
+        return null;
+    }
+
     private List<PodTemplate> podTemplates(ImageStream imageStream) {
         List<PodTemplate> results = new ArrayList<PodTemplate>();
         // for IS, since we can check labels, check there
@@ -179,43 +259,106 @@ public class ImageStreamWatcher extends BaseWatcher {
         }
 
         String namespace = imageStream.getMetadata().getNamespace();
+        String isName = imageStream.getMetadata().getName();
+        Map<String, String> isLabels = imageStream.getMetadata().getLabels();
+        boolean streamHasSlaveLabel = hasSlaveLabelOrAnnotation(isLabels);
 
         // since we cannot create watches on ImageStream tags, we have to
-        // traverse
-        // the tags and look for the slave label
-        for (TagReference tagRef : imageStream.getSpec().getTags()) {
-            ImageStreamTag ist = null;
-            try {
-                ist = getAuthenticatedOpenShiftClient()
-                        .imageStreamTags()
-                        .inNamespace(namespace)
-                        .withName(
-                                imageStream.getMetadata().getName() + ":"
-                                        + tagRef.getName()).get();
-            } catch (Throwable t) {
-                logger.log(Level.FINE, "podTemplates", t);
+        // traverse the tags and look for the slave label; an ImageStreamTag
+        // carries the annotations of its spec tag and the labels of its
+        // stream, and the image it points at is the latest entry for the tag
+        // in the stream status, so everything needed is already in hand
+        Map<String, TagEvent> latestImages = new HashMap<String, TagEvent>();
+        if (imageStream.getStatus() != null && imageStream.getStatus().getTags() != null) {
+            for (NamedTagEventList tagHistory : imageStream.getStatus().getTags()) {
+                if (tagHistory.getItems() != null && tagHistory.getItems().size() > 0) {
+                    latestImages.put(tagHistory.getTag(), tagHistory.getItems().get(0));
+                }
             }
-            // for IST, can't set labels directly, but can inherit, so check annotations (if IST directly
-            // updated) and then labels (if inherited from imagestream)
-            if (ist != null) {
-                if (hasSlaveLabelOrAnnotation(ist.getMetadata().getAnnotations())) {
-                    results.add(this.podTemplateFromData(ist.getMetadata()
-                        .getName(), ist.getImage()
-                        .getDockerImageReference(), ist.getMetadata()
-                        .getAnnotations()));
+        }
+        Set<String> slaveTags = new HashSet<String>();
+        if (imageStream.getSpec() != null && imageStream.getSpec().getTags() != null) {
+            for (TagReference tagRef : imageStream.getSpec().getTags()) {
+                // for IST, can't set labels directly, but can inherit, so check
+                // annotations (if IST directly updated) and then labels (if
+                // inherited from imagestream)
+                Map<String, String> map = null;
+                if (hasSlaveLabelOrAnnotation(tagRef.getAnnotations())) {
+                    map = tagRef.getAnnotations();
+                } else if (streamHasSlaveLabel) {
+                    map = isLabels;
                 } else {
-                    if (hasSlaveLabelOrAnnotation(ist.getMetadata().getLabels())) {
-                        results.add(this.podTemplateFromData(ist.getMetadata()
-                                .getName(), ist.getImage()
-                                .getDockerImageReference(), ist.getMetadata()
-                                .getLabels()));
-                    }
+                    continue;
+                }
+                TagEvent latest = latestImages.get(tagRef.getName());
+                if (latest == null || StringUtils.isEmpty(latest.getDockerImageReference())) {
+                    // nothing imported for the tag yet
+                    continue;
                 }
+                String istName = isName + ":" + tagRef.getName();
+                slaveTags.add(istName);
+                results.add(tagPodTemplate(namespace, istName, latest, map));
             }
         }
+        evictTagPodTemplates(namespace, isName, slaveTags);
         return results;
     }
 
+    // returns the pod template of an image stream tag, reusing the one built
+    // for the tag before unless the tag now points at another image or its
+    // labels/annotations changed
+    private PodTemplate tagPodTemplate(String namespace, String istName, TagEvent latest, Map<String, String> map) {
+        String streamKey = namespace + "/" + istName.substring(0, istName.indexOf(':'));
+        ConcurrentHashMap<String, TagPodTemplate> streamTemplates = tagPodTemplates.get(streamKey);
+        if (streamTemplates == null) {
+            ConcurrentHashMap<String, TagPodTemplate> newTemplates = new ConcurrentHashMap<String, TagPodTemplate>();
+            streamTemplates = tagPodTemplates.putIfAbsent(streamKey, newTemplates);
+            if (streamTemplates == null) {
+                streamTemplates = newTemplates;
+            }
+        }
+        TagPodTemplate cached = streamTemplates.get(istName);
+        if (cached != null && cached.matches(latest, map)) {
+            return cached.podTemplate;
+        }
+        PodTemplate podTemplate = podTemplateFromData(istName, latest.getDockerImageReference(), map);
+        streamTemplates.put(istName, new TagPodTemplate(latest, map, podTemplate));
+        return podTemplate;
+    }
+
+    private void evictTagPodTemplates(String namespace, String isName, Set<String> keep) {
+        String streamKey = namespace + "/" + isName;
+        if (keep.isEmpty()) {
+            tagPodTemplates.remove(streamKey);
+            return;
+        }
+        ConcurrentHashMap<String, TagPodTemplate> streamTemplates = tagPodTemplates.get(streamKey);
+        if (streamTemplates != null) {
+            streamTemplates.keySet().retainAll(keep);
+        }
+    }
+
+    private static final class TagPodTemplate {
+        private final String image;
+        private final String dockerImageReference;
+        // the labels or annotations the template was built from
+        private final Map<String, String> map;
+        private final PodTemplate podTemplate;
+
+        private TagPodTemplate(TagEvent latest, Map<String, String> map, PodTemplate podTemplate) {
+            this.image = latest.getImage();
+            this.dockerImageReference = latest.getDockerImageReference();
+            this.map = new HashMap<String, String>(map);
+            this.podTemplate = podTemplate;
+        }
+
+        private boolean matches(TagEvent latest, Map<String, String> map) {
+            return StringUtils.equals(image, latest.getImage())
+                    && StringUtils.equals(dockerImageReference, latest.getDockerImageReference())
+                    && this.map.equals(map);
+        }
+    }
+
     private PodTemplate podTemplateFromData(String name, String image,
             Map<String, String> map) {
         // node, pod names cannot have colons
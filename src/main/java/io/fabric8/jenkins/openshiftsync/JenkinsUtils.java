@@ -44,6 +44,8 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -85,12 +87,13 @@ import hudson.plugins.git.RevisionParameterAction;
 import hudson.security.ACL;
 import hudson.slaves.Cloud;
 import hudson.triggers.SafeTimerTask;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import hudson.util.XStream2;
 import io.fabric8.kubernetes.api.model.EnvVar;
 import io.fabric8.kubernetes.api.model.ObjectMeta;
 import io.fabric8.kubernetes.api.model.Pod;
 import io.fabric8.openshift.api.model.Build;
-import io.fabric8.openshift.api.model.BuildBuilder;
 import io.fabric8.openshift.api.model.BuildConfig;
 import io.fabric8.openshift.api.model.BuildSpec;
 import io.fabric8.openshift.api.model.GitBuildSource;
@@ -98,6 +101,7 @@ import io.fabric8.openshift.api.model.GitSourceRevision;
 import io.fabric8.openshift.api.model.JenkinsPipelineBuildStrategy;
 import io.fabric8.openshift.api.model.SourceRevision;
 import jenkins.model.Jenkins;
+import jenkins.util.AtmostOneThreadExecutor;
 import jenkins.security.NotReallyRoleSensitiveCallable;
 import jenkins.util.Timer;
 
@@ -108,6 +112,25 @@ public class JenkinsUtils {
 	private static final Logger LOGGER = Logger.getLogger(JenkinsUtils.class.getName());
 	private static final String PARAM_FROM_ENV_DESCRIPTION = "From OpenShift Build Environment Variable";
 
+	// sends the PENDING phase of triggered builds to OpenShift
+	private static final ExecutorService phaseUpdater = new AtmostOneThreadExecutor(
+			new NamingThreadFactory(new DaemonThreadFactory(), "OpenShift build phase updater"));
+
+	// guards changes to the pod templates of the openshift cloud
+	static final Object podTemplateLock = new Object();
+	// the pod templates of the openshift cloud, by name
+	private static final ConcurrentHashMap<String, PodTemplate> podTemplatesByName = new ConcurrentHashMap<String, PodTemplate>();
+	private static volatile KubernetesCloud indexedCloud;
+	// the template list the index was built from, and its size then, to
+	// notice changes made through the cloud configuration or other plugins
+	private static volatile List<PodTemplate> indexedTemplates;
+	private static volatile int indexedTemplateCount;
+
+	// the service account of the pod Jenkins runs in, given to every pod
+	// template; looked up again once the TTL has passed
+	private static final long MASTER_POD_TTL_MS = TimeUnit.MINUTES.toMillis(10);
+	private static volatile MasterPodInfo masterPodInfo;
+
 	public static Job getJob(String job) {
 		TopLevelItem item = Jenkins.getActiveInstance().getItem(job);
 		if (item instanceof Job) {
@@ -195,6 +218,19 @@ public class JenkinsUtils {
 
 	public static Map<String, ParameterDefinition> addJobParamForBuildEnvs(WorkflowJob job, JenkinsPipelineBuildStrategy strat,
 			boolean replaceExisting) throws IOException {
+		Map<String, ParameterDefinition> paramMap = updateJobParamsForBuildEnvs(job, strat, replaceExisting);
+		// force save here ... seen some timing issues with concurrent job updates and run initiations
+        InputStream jobStream = new StringInputStream(new XStream2().toXML(job));
+		updateJob(job, jobStream, null, null);
+		return paramMap;
+	}
+
+	/**
+	 * Same as {@link #addJobParamForBuildEnvs(WorkflowJob, JenkinsPipelineBuildStrategy, boolean)}
+	 * but only changes the job in memory, leaving the save to the caller
+	 */
+	static Map<String, ParameterDefinition> updateJobParamsForBuildEnvs(WorkflowJob job, JenkinsPipelineBuildStrategy strat,
+			boolean replaceExisting) throws IOException {
 		List<EnvVar> envs = strat.getEnv();
         Map<String, ParameterDefinition> paramMap = null;
 		if (envs.size() > 0) {
@@ -241,9 +277,6 @@ public class JenkinsUtils {
 			List<ParameterDefinition> newParamList = new ArrayList<ParameterDefinition>(paramMap.values());
 			job.addProperty(new ParametersDefinitionProperty(newParamList));
 		}
-		// force save here ... seen some timing issues with concurrent job updates and run initiations
-        InputStream jobStream = new StringInputStream(new XStream2().toXML(job));
-		updateJob(job, jobStream, null, null);
 		return paramMap;
 	}
 
@@ -372,8 +405,7 @@ public class JenkinsUtils {
 
         ObjectMeta meta = build.getMetadata();
         String namespace = meta.getNamespace();
-        BuildConfig buildConfig = getAuthenticatedOpenShiftClient().buildConfigs().inNamespace(namespace)
-                .withName(buildConfigName).get();
+        BuildConfig buildConfig = getBuildConfig(namespace, buildConfigName);
         if (buildConfig == null) {
             return false;
         }
@@ -469,16 +501,11 @@ public class JenkinsUtils {
             }
             putJobWithBuildConfig(job, buildConfig);
 
+            // keeps Jenkins from adding this build's cause to the queued item
+            // of an earlier build instead of queueing it
+            buildActions.add(new BuildUidQueueAction(build.getMetadata().getUid()));
             if (job.scheduleBuild2(0, buildActions.toArray(new Action[buildActions.size()])) != null) {
-                updateOpenShiftBuildPhase(build, PENDING);
-                // If builds are queued too quickly, Jenkins can add the cause
-                // to the previous queued build so let's add a tiny
-                // sleep.
-                try {
-                    Thread.sleep(50l);
-                } catch (InterruptedException e) {
-                    // Ignore
-                }
+                markBuildPending(job, build);
                 return true;
             }
 
@@ -486,6 +513,30 @@ public class JenkinsUtils {
         }
     }
     
+	// sets the PENDING phase off the trigger path; the updates are sent one at
+	// a time in trigger order, and skipped once the run has started as its
+	// phase is then kept up to date by BuildSyncRunListener. The check and the
+	// update hold the lock BuildSyncRunListener writes the Build under, so
+	// PENDING can never land after the run's first status.
+	private static void markBuildPending(final WorkflowJob job, final Build build) {
+		phaseUpdater.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					synchronized (build.getMetadata().getUid().intern()) {
+						WorkflowRun run = getRun(job, build);
+						if (run == null || run.hasntStartedYet()) {
+							updateOpenShiftBuildPhase(build, PENDING);
+						}
+					}
+				} catch (Exception e) {
+					LOGGER.log(WARNING, "Failed to set build " + build.getMetadata().getNamespace() + "/"
+							+ build.getMetadata().getName() + " to " + PENDING, e);
+				}
+			}
+		});
+	}
+
 	private static boolean isAlreadyTriggered(WorkflowJob job, Build build) {
 		return getRun(job, build) != null;
 	}
@@ -517,12 +568,7 @@ public class JenkinsUtils {
 
 	private static WorkflowRun getRun(WorkflowJob job, String buildUid, int retry) {
 	    try {
-	        for (WorkflowRun run : job.getBuilds()) {
-	            BuildCause cause = run.getCause(BuildCause.class);
-	            if (cause != null && cause.getUid().equals(buildUid)) {
-	                return run;
-	            }
-	        }
+	        return BuildToRunMap.getRun(job, buildUid);
 	    } catch (Throwable t) {
 	        if (retry == 0) {
 	            try {
@@ -547,7 +593,9 @@ public class JenkinsUtils {
 
   public static void deleteRun(WorkflowJob job, Build build) {
       WorkflowRun run = getRun(job, build);
-      deleteRun(run);
+      if (run != null) {
+          deleteRun(run);
+      }
   }
 
 	private static boolean cancelRunningBuild(WorkflowJob job, Build build) {
@@ -572,12 +620,9 @@ public class JenkinsUtils {
 
 	private static void cancelNotYetStartedBuilds(WorkflowJob job, String bcUid) {
 		cancelQueuedBuilds(job, bcUid);
-		for (WorkflowRun run : job.getBuilds()) {
-			if (run != null && run.hasntStartedYet()) {
-				BuildCause cause = run.getCause(BuildCause.class);
-				if (cause != null && cause.getBuildConfigUid().equals(bcUid)) {
-					terminateRun(run);
-				}
+		for (WorkflowRun run : BuildToRunMap.getNotYetStartedRuns(job, bcUid)) {
+			if (run.hasntStartedYet()) {
+				terminateRun(run);
 			}
 		}
 	}
@@ -604,42 +649,33 @@ public class JenkinsUtils {
 		});
 	}
 
-	@SuppressFBWarnings("SE_BAD_FIELD")
 	public static boolean cancelQueuedBuild(WorkflowJob job, Build build) {
 		String buildUid = build.getMetadata().getUid();
-		final Queue buildQueue = Jenkins.getActiveInstance().getQueue();
-		for (final Queue.Item item : buildQueue.getItems()) {
-			for (Cause cause : item.getCauses()) {
-				if (cause instanceof BuildCause && ((BuildCause) cause).getUid().equals(buildUid)) {
-					return ACL.impersonate(ACL.SYSTEM, new NotReallyRoleSensitiveCallable<Boolean, RuntimeException>() {
-						@Override
-						public Boolean call() throws RuntimeException {
-							buildQueue.cancel(item);
-							return true;
-						}
-					});
-				}
-			}
+		Queue.Item item = BuildQueueListener.getQueuedItem(buildUid);
+		if (item != null) {
+			return cancelQueueItem(item);
 		}
 		return cancelNotYetStartedBuild(job, build);
 	}
 
 	public static void cancelQueuedBuilds(WorkflowJob job, String bcUid) {
-		Queue buildQueue = Jenkins.getActiveInstance().getQueue();
-		for (Queue.Item item : buildQueue.getItems()) {
-			for (Cause cause : item.getCauses()) {
-				if (cause instanceof BuildCause) {
-					BuildCause buildCause = (BuildCause) cause;
-					if (buildCause.getBuildConfigUid().equals(bcUid)) {
-						Build build = new BuildBuilder().withNewMetadata().withNamespace(buildCause.getNamespace())
-								.withName(buildCause.getName()).and().build();
-						cancelQueuedBuild(job, build);
-					}
-				}
-			}
+		for (Queue.Item item : BuildQueueListener.getQueuedItems(bcUid)) {
+			cancelQueueItem(item);
 		}
 	}
 
+	@SuppressFBWarnings("SE_BAD_FIELD")
+	private static boolean cancelQueueItem(final Queue.Item item) {
+		final Queue buildQueue = Jenkins.getActiveInstance().getQueue();
+		return ACL.impersonate(ACL.SYSTEM, new NotReallyRoleSensitiveCallable<Boolean, RuntimeException>() {
+			@Override
+			public Boolean call() throws RuntimeException {
+				buildQueue.cancel(item);
+				return true;
+			}
+		});
+	}
+
 	public static WorkflowJob getJobFromBuild(Build build) {
 		String buildConfigName = build.getStatus().getConfig().getName();
 		if (StringUtils.isEmpty(buildConfigName)) {
@@ -652,14 +688,24 @@ public class JenkinsUtils {
 		    return job;
 		}
 
-		BuildConfig buildConfig = getAuthenticatedOpenShiftClient().buildConfigs()
-				.inNamespace(build.getMetadata().getNamespace()).withName(buildConfigName).get();
+		BuildConfig buildConfig = getBuildConfig(build.getMetadata().getNamespace(), buildConfigName);
 		if (buildConfig == null) {
 			return null;
 		}
 		return getJobFromBuildConfig(buildConfig);
 	}
 
+	// returns the BuildConfig as known to the BuildConfigWatcher, only asking
+	// the API server if the watcher has not seen it; what the API server
+	// returns is kept by the watcher until the build config changes
+	static BuildConfig getBuildConfig(String namespace, String name) {
+		BuildConfig buildConfig = BuildConfigWatcher.getCachedBuildConfig(namespace, name);
+		if (buildConfig != null) {
+			return buildConfig;
+		}
+		return BuildConfigWatcher.fetchBuildConfig(namespace, name);
+	}
+
     public static void updateJob(WorkflowJob job, InputStream jobStream, String existingBuildRunPolicy, BuildConfigProjectProperty buildConfigProjectProperty) throws IOException {
         try {
             ACL.impersonate(ACL.SYSTEM, new NotReallyRoleSensitiveCallable<Void, Exception>() {
@@ -845,89 +891,142 @@ public class JenkinsUtils {
 	}
 
 	public static void removePodTemplate(PodTemplate podTemplate) {
-		KubernetesCloud kubeCloud = JenkinsUtils.getKubernetesCloud();
+		KubernetesCloud kubeCloud = indexedKubernetesCloud();
 		if (kubeCloud != null) {
-			LOGGER.info("Removing PodTemplate: " + podTemplate.getName());
-			// NOTE - PodTemplate does not currently override hashCode, equals,
-			// so
-			// the KubernetsCloud.removeTemplate currently is broken;
-			// kubeCloud.removeTemplate(podTemplate);
-			List<PodTemplate> list = kubeCloud.getTemplates();
-			Iterator<PodTemplate> iter = list.iterator();
-			while (iter.hasNext()) {
-				PodTemplate pt = iter.next();
-				if (pt.getName().equals(podTemplate.getName())) {
-					iter.remove();
-				}
-			}
-			// now set new list back into cloud
-			kubeCloud.setTemplates(list);
-			try {
-				// pedantic mvn:findbugs
-				Jenkins jenkins = Jenkins.getInstance();
-				if (jenkins != null)
-					jenkins.save();
-			} catch (IOException e) {
-				LOGGER.log(Level.SEVERE, "removePodTemplate", e);
+			synchronized (podTemplateLock) {
+				removePodTemplate(kubeCloud, podTemplate);
 			}
+		}
+	}
 
-			if (LOGGER.isLoggable(Level.FINE)) {
-				LOGGER.fine("PodTemplates now:");
-				for (PodTemplate pt : kubeCloud.getTemplates()) {
-					LOGGER.fine(pt.getName());
-				}
+	// must be called holding podTemplateLock
+	private static void removePodTemplate(KubernetesCloud kubeCloud, PodTemplate podTemplate) {
+		String name = podTemplate.getName();
+		if (name == null) {
+			return;
+		}
+		// a miss in the index still scans the list, the template may have
+		// been added since the index was built
+		podTemplatesByName.remove(name);
+		// NOTE - PodTemplate does not currently override hashCode, equals,
+		// so
+		// the KubernetsCloud.removeTemplate currently is broken;
+		// kubeCloud.removeTemplate(podTemplate);
+		// the cloud's list is replaced rather than changed in place, as it may
+		// be being written out by PodTemplatePersister
+		List<PodTemplate> list = new ArrayList<PodTemplate>(kubeCloud.getTemplates());
+		boolean removed = false;
+		Iterator<PodTemplate> iter = list.iterator();
+		while (iter.hasNext()) {
+			PodTemplate pt = iter.next();
+			if (name.equals(pt.getName())) {
+				iter.remove();
+				removed = true;
+			}
+		}
+		if (!removed) {
+			return;
+		}
+		LOGGER.info("Removing PodTemplate: " + name);
+		// now set new list back into cloud
+		setPodTemplates(kubeCloud, list);
+		PodTemplatePersister.markDirty();
+
+		if (LOGGER.isLoggable(Level.FINE)) {
+			LOGGER.fine("PodTemplates now:");
+			for (PodTemplate pt : kubeCloud.getTemplates()) {
+				LOGGER.fine(pt.getName());
 			}
 		}
 	}
 
-	public static synchronized List<PodTemplate> getPodTemplates() {
+	public static List<PodTemplate> getPodTemplates() {
 		KubernetesCloud kubeCloud = JenkinsUtils.getKubernetesCloud();
 		if (kubeCloud != null) {
-			// create copy of list for more flexiblity in loops
-			ArrayList<PodTemplate> list = new ArrayList<PodTemplate>();
-			list.addAll(kubeCloud.getTemplates());
-			return list;
+			synchronized (podTemplateLock) {
+				// create copy of list for more flexiblity in loops
+				ArrayList<PodTemplate> list = new ArrayList<PodTemplate>();
+				list.addAll(kubeCloud.getTemplates());
+				return list;
+			}
 		} else {
 			return null;
 		}
 	}
 
-	public static synchronized boolean hasPodTemplate(PodTemplate incomingPod) {
+	public static boolean hasPodTemplate(PodTemplate incomingPod) {
 		String name = incomingPod.getName();
 		if (name == null)
 			return false;
 		String image = incomingPod.getImage();
 		if (image == null)
 			return false;
-		KubernetesCloud kubeCloud = JenkinsUtils.getKubernetesCloud();
+		if (indexedKubernetesCloud() == null)
+			return false;
+		PodTemplate pod = podTemplatesByName.get(name);
+		return pod != null && image.equals(pod.getImage());
+	}
+
+	public static void addPodTemplate(PodTemplate podTemplate) {
+		KubernetesCloud kubeCloud = indexedKubernetesCloud();
 		if (kubeCloud != null) {
-			List<PodTemplate> list = kubeCloud.getTemplates();
-			for (PodTemplate pod : list) {
-				if (name.equals(pod.getName()) && image.equals(pod.getImage()))
-					return true;
+			synchronized (podTemplateLock) {
+				// clear out existing template with same name; k8s plugin
+				// maintains list, not map
+				removePodTemplate(kubeCloud, podTemplate);
+				LOGGER.info("Adding PodTemplate: " + podTemplate.getName());
+				// replaced rather than changed in place, see removePodTemplate
+				List<PodTemplate> list = new ArrayList<PodTemplate>(kubeCloud.getTemplates());
+				list.add(podTemplate);
+				setPodTemplates(kubeCloud, list);
+				if (podTemplate.getName() != null) {
+					podTemplatesByName.put(podTemplate.getName(), podTemplate);
+				}
+				PodTemplatePersister.markDirty();
 			}
 		}
-		return false;
 	}
 
-	public static synchronized void addPodTemplate(PodTemplate podTemplate) {
-		// clear out existing template with same name; k8s plugin maintains
-		// list, not map
-		removePodTemplate(podTemplate);
+	// must be called holding podTemplateLock; an index that was valid for the
+	// old list stays valid, the caller keeps it in step with the change
+	static void setPodTemplates(KubernetesCloud kubeCloud, List<PodTemplate> list) {
+		boolean stale = isIndexStale(kubeCloud);
+		kubeCloud.setTemplates(list);
+		if (!stale) {
+			indexedTemplates = kubeCloud.getTemplates();
+			indexedTemplateCount = indexedTemplates.size();
+		}
+	}
 
-		KubernetesCloud kubeCloud = JenkinsUtils.getKubernetesCloud();
-		if (kubeCloud != null) {
-			LOGGER.info("Adding PodTemplate: " + podTemplate.getName());
-			kubeCloud.addTemplate(podTemplate);
-			try {
-				// pedantic mvn:findbugs
-				Jenkins jenkins = Jenkins.getInstance();
-				if (jenkins != null)
-					jenkins.save();
-			} catch (IOException e) {
-				LOGGER.log(Level.SEVERE, "addPodTemplate", e);
+	// returns the openshift cloud, first (re)building the name index of its
+	// pod templates if the cloud or its template list changed since it was
+	// last indexed, as happens when the Jenkins configuration is saved or
+	// another plugin adds a template
+	private static KubernetesCloud indexedKubernetesCloud() {
+		KubernetesCloud kubeCloud = getKubernetesCloud();
+		if (kubeCloud != null && isIndexStale(kubeCloud)) {
+			synchronized (podTemplateLock) {
+				if (isIndexStale(kubeCloud)) {
+					podTemplatesByName.clear();
+					List<PodTemplate> templates = kubeCloud.getTemplates();
+					for (PodTemplate pt : templates) {
+						if (pt.getName() != null) {
+							podTemplatesByName.put(pt.getName(), pt);
+						}
+					}
+					indexedCloud = kubeCloud;
+					indexedTemplates = templates;
+					indexedTemplateCount = templates.size();
+				}
 			}
 		}
+		return kubeCloud;
+	}
+
+	private static boolean isIndexStale(KubernetesCloud kubeCloud) {
+		List<PodTemplate> templates = kubeCloud.getTemplates();
+		return kubeCloud != indexedCloud || templates != indexedTemplates
+				|| templates.size() != indexedTemplateCount;
 	}
 
 	public static KubernetesCloud getKubernetesCloud() {
@@ -959,14 +1058,47 @@ public class JenkinsUtils {
 		podTemplate.setCommand("");
 		podTemplate.setArgs("${computer.jnlpmac} ${computer.name}");
 		podTemplate.setRemoteFs("/tmp");
-		String podName = System.getenv().get("HOSTNAME");
-		if (podName != null) {
-			Pod pod = getAuthenticatedOpenShiftClient().pods().withName(podName).get();
-			if (pod != null) {
-				podTemplate.setServiceAccount(pod.getSpec().getServiceAccountName());
-			}
+		String serviceAccount = getMasterServiceAccount();
+		if (serviceAccount != null) {
+			podTemplate.setServiceAccount(serviceAccount);
 		}
 
 		return podTemplate;
 	}
+
+	private static String getMasterServiceAccount() {
+		MasterPodInfo info = masterPodInfo;
+		long now = System.currentTimeMillis();
+		if (info == null || now > info.expires) {
+			String serviceAccount = null;
+			String podName = System.getenv().get("HOSTNAME");
+			if (podName != null) {
+				Pod pod = getAuthenticatedOpenShiftClient().pods().withName(podName).get();
+				if (pod != null) {
+					serviceAccount = pod.getSpec().getServiceAccountName();
+				}
+			}
+			info = new MasterPodInfo(serviceAccount, now + MASTER_POD_TTL_MS);
+			masterPodInfo = info;
+		}
+		return info.serviceAccount;
+	}
+
+	/**
+	 * Forgets the service account of the Jenkins pod, so the next pod template
+	 * looks it up again
+	 */
+	static void invalidateMasterPodInfo() {
+		masterPodInfo = null;
+	}
+
+	private static final class MasterPodInfo {
+		private final String serviceAccount;
+		private final long expires;
+
+		private MasterPodInfo(String serviceAccount, long expires) {
+			this.serviceAccount = serviceAccount;
+			this.expires = expires;
+		}
+	}
 }
@@ -7,6 +7,8 @@ import static io.fabric8.jenkins.openshiftsync.BuildConfigToJobMap.putJobWithBui
 import static io.fabric8.jenkins.openshiftsync.BuildConfigToJobMapper.mapBuildConfigToFlow;
 import static io.fabric8.jenkins.openshiftsync.BuildRunPolicy.SERIAL;
 import static io.fabric8.jenkins.openshiftsync.BuildRunPolicy.SERIAL_LATEST_ONLY;
+import static io.fabric8.jenkins.openshiftsync.CredentialsUtils.updateSourceCredentials;
+import static io.fabric8.jenkins.openshiftsync.JenkinsUtils.maybeScheduleNext;
 import static io.fabric8.jenkins.openshiftsync.JenkinsUtils.updateJob;
 import static io.fabric8.jenkins.openshiftsync.OpenShiftUtils.getAnnotation;
 import static io.fabric8.jenkins.openshiftsync.OpenShiftUtils.getFullNameParent;
@@ -20,6 +22,7 @@ import static io.fabric8.jenkins.openshiftsync.OpenShiftUtils.parseResourceVersi
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import org.apache.tools.ant.filters.StringInputStream;
@@ -32,6 +35,7 @@ import hudson.AbortException;
 import hudson.BulkChange;
 import hudson.model.ItemGroup;
 import hudson.model.ParameterDefinition;
+import hudson.model.ParametersDefinitionProperty;
 import hudson.util.XStream2;
 import io.fabric8.openshift.api.model.BuildConfig;
 import jenkins.model.Jenkins;
@@ -61,6 +65,16 @@ public class JobProcessor extends NotReallyRoleSensitiveCallable<Void, Exception
 			job = (WorkflowJob) activeInstance.getItemByFullName(jobFullName);
 		}
 		boolean newJob = job == null;
+
+		if (!newJob && isUpToDate(job, jobFullName)) {
+			logger.fine("Job " + jobFullName + " is already up to date with BuildConfig "
+					+ NamespaceName.create(buildConfig) + " revision " + buildConfig.getMetadata().getResourceVersion());
+			putJobWithBuildConfig(job, buildConfig);
+			// the source secret may have changed without the build config,
+			// and is only watched if labelled for sync
+			updateSourceCredentials(buildConfig);
+			return null;
+		}
 		
 		if (newJob) {
 			String disableOn = getAnnotation(buildConfig, DISABLE_SYNC_CREATE);
@@ -73,18 +87,118 @@ public class JobProcessor extends NotReallyRoleSensitiveCallable<Void, Exception
 			job = new WorkflowJob(parent, jobName);
 		}
 		BulkChange bulkJob = new BulkChange(job);
+		try {
+			FlowDefinition flowFromBuildConfig = mapBuildConfigToFlow(buildConfig);
+			if (flowFromBuildConfig == null) {
+				return null;
+			}
 
-		job.setDisplayName(jenkinsJobDisplayName(buildConfig));
+			boolean displayNameChanged = !jenkinsJobDisplayName(buildConfig).equals(job.getDisplayName());
+			job.setDisplayName(jenkinsJobDisplayName(buildConfig));
+			Map<String, ParameterDefinition> paramMap;
+			if (newJob) {
+				paramMap = createJob(activeInstance, parent, jobName, job, flowFromBuildConfig);
+				bulkJob.commit();
+			} else {
+				paramMap = updateJobInPlace(job, bulkJob, displayNameChanged, flowFromBuildConfig);
+			}
+			populateNamespaceFolder(activeInstance, parent, jobName, job, paramMap);
+		} finally {
+			// no-op once committed
+			bulkJob.abort();
+		}
+		return null;
+	}
 
-		FlowDefinition flowFromBuildConfig = mapBuildConfigToFlow(buildConfig);
-		if (flowFromBuildConfig == null) {
-			return null;
+	// applies the build config to an existing job directly, saving it once and
+	// only if something changed, rather than serializing the job and loading
+	// it back from the XML
+	private Map<String, ParameterDefinition> updateJobInPlace(WorkflowJob job, BulkChange bulkJob,
+			boolean displayNameChanged, FlowDefinition flowFromBuildConfig) throws IOException {
+		boolean changed = displayNameChanged;
+
+		if (!toXML(flowFromBuildConfig).equals(toXML(job.getDefinition()))) {
+			job.setDefinition(flowFromBuildConfig);
+			changed = true;
+		}
+
+		BuildConfigProjectProperty buildConfigProjectProperty = job.getProperty(BuildConfigProjectProperty.class);
+		String existingBuildRunPolicy = null;
+		if (buildConfigProjectProperty == null || !isSameBuildConfig(buildConfigProjectProperty)) {
+			changed = true;
+		}
+		// a newer resource version alone (for example a status update) is
+		// kept in memory and saved at most once per relist interval, so the
+		// saved one is never far enough behind to make every job look stale
+		// after a restart
+		if (buildConfigProjectProperty != null && !isCurrent(buildConfigProjectProperty)
+				&& System.currentTimeMillis() - buildConfigProjectProperty.getSavedAt() > TimeUnit.SECONDS
+						.toMillis(GlobalPluginConfiguration.get().getBuildConfigListInterval())) {
+			changed = true;
+		}
+		existingBuildRunPolicy = populateBCProjectProperty(job, null, buildConfigProjectProperty);
+
+		String paramsBefore = toXML(job.getProperty(ParametersDefinitionProperty.class));
+		Map<String, ParameterDefinition> paramMap = JenkinsUtils.updateJobParamsForBuildEnvs(job,
+				buildConfig.getSpec().getStrategy().getJenkinsPipelineStrategy(), true);
+		if (!paramsBefore.equals(toXML(job.getProperty(ParametersDefinitionProperty.class)))) {
+			changed = true;
+		}
+
+		boolean concurrentBuild = !(buildConfig.getSpec().getRunPolicy().equals(SERIAL)
+				|| buildConfig.getSpec().getRunPolicy().equals(SERIAL_LATEST_ONLY));
+		if (concurrentBuild != job.isConcurrentBuild()) {
+			job.setConcurrentBuild(concurrentBuild);
+			changed = true;
+		}
+
+		if (!changed) {
+			logger.fine("Job " + job.getFullName() + " already matches BuildConfig " + NamespaceName.create(buildConfig)
+					+ " with revision: " + buildConfig.getMetadata().getResourceVersion());
+			return paramMap;
 		}
-		Map<String, ParameterDefinition> paramMap = createOrUpdateJob(activeInstance, parent, jobName, job, newJob,
-				flowFromBuildConfig);
 		bulkJob.commit();
-		populateNamespaceFolder(activeInstance, parent, jobName, job, paramMap);
-		return null;
+		BuildConfigProjectProperty savedProperty = job.getProperty(BuildConfigProjectProperty.class);
+		if (savedProperty != null) {
+			savedProperty.setSavedAt(System.currentTimeMillis());
+		}
+		logger.info("Updated job " + job.getName() + " from BuildConfig " + NamespaceName.create(buildConfig)
+				+ " with revision: " + buildConfig.getMetadata().getResourceVersion());
+		if (existingBuildRunPolicy != null && buildConfigProjectProperty != null
+				&& !existingBuildRunPolicy.equals(buildConfigProjectProperty.getBuildRunPolicy())) {
+			maybeScheduleNext(job);
+		}
+		return paramMap;
+	}
+
+	private static String toXML(Object o) {
+		return o == null ? "" : Jenkins.XSTREAM2.toXML(o);
+	}
+
+	// the job was last synced from this or a later revision of the same build
+	// config, so mapping it again (which serializes and saves the job) would
+	// not change anything
+	private boolean isUpToDate(WorkflowJob job, String jobFullName) {
+		BuildConfigProjectProperty property = job.getProperty(BuildConfigProjectProperty.class);
+		if (property == null || !job.getFullName().equals(jobFullName)) {
+			return false;
+		}
+		return parseResourceVersion(buildConfig) > 0 && isCurrent(property)
+				&& jenkinsJobDisplayName(buildConfig).equals(job.getDisplayName());
+	}
+
+	// the property already describes this or a later revision of the build
+	// config
+	private boolean isCurrent(BuildConfigProjectProperty property) {
+		return parseResourceVersion(buildConfig) <= parseResourceVersion(property.getResourceVersion())
+				&& isSameBuildConfig(property);
+	}
+
+	private boolean isSameBuildConfig(BuildConfigProjectProperty property) {
+		return buildConfig.getMetadata().getUid().equals(property.getUid())
+				&& getNamespace(buildConfig).equals(property.getNamespace())
+				&& getName(buildConfig).equals(property.getName())
+				&& buildConfig.getSpec().getRunPolicy().equals(property.getBuildRunPolicy());
 	}
 
 	private void populateNamespaceFolder(Jenkins activeInstance, ItemGroup parent, String jobName, WorkflowJob job,
@@ -109,8 +223,8 @@ public class JobProcessor extends NotReallyRoleSensitiveCallable<Void, Exception
 		}
 	}
 
-	private Map<String, ParameterDefinition> createOrUpdateJob(Jenkins activeInstance, ItemGroup parent, String jobName,
-			WorkflowJob job, boolean newJob, FlowDefinition flowFromBuildConfig) throws IOException {
+	private Map<String, ParameterDefinition> createJob(Jenkins activeInstance, ItemGroup parent, String jobName,
+			WorkflowJob job, FlowDefinition flowFromBuildConfig) throws IOException {
 		job.setDefinition(flowFromBuildConfig);
 
 		String existingBuildRunPolicy = null;
@@ -120,7 +234,7 @@ public class JobProcessor extends NotReallyRoleSensitiveCallable<Void, Exception
 
 		// (re)populate job param list with any envs
 		// from the build config
-		Map<String, ParameterDefinition> paramMap = JenkinsUtils.addJobParamForBuildEnvs(job,
+		Map<String, ParameterDefinition> paramMap = JenkinsUtils.updateJobParamsForBuildEnvs(job,
 				buildConfig.getSpec().getStrategy().getJenkinsPipelineStrategy(), true);
 
 		job.setConcurrentBuild(!(buildConfig.getSpec().getRunPolicy().equals(SERIAL)
@@ -128,30 +242,24 @@ public class JobProcessor extends NotReallyRoleSensitiveCallable<Void, Exception
 
 		InputStream jobStream = new StringInputStream(new XStream2().toXML(job));
 
-		if (newJob) {
-			try {
-				if (parent instanceof Folder) {
-					Folder folder = (Folder) parent;
-					folder.createProjectFromXML(jobName, jobStream).save();
-				} else {
-					activeInstance.createProjectFromXML(jobName, jobStream).save();
-				}
-
-				logger.info("Created job " + jobName + " from BuildConfig " + NamespaceName.create(buildConfig)
-						+ " with revision: " + buildConfig.getMetadata().getResourceVersion());
-			} catch (IllegalArgumentException e) {
-				// see
-				// https://github.com/openshift/jenkins-sync-plugin/issues/117,
-				// jenkins might reload existing jobs on
-				// startup between the
-				// newJob check above and when we make
-				// the createProjectFromXML call; if so,
-				// retry as an update
-				updateJob(job, jobStream, existingBuildRunPolicy, buildConfigProjectProperty);
-				logger.info("Updated job " + jobName + " from BuildConfig " + NamespaceName.create(buildConfig)
-						+ " with revision: " + buildConfig.getMetadata().getResourceVersion());
+		try {
+			if (parent instanceof Folder) {
+				Folder folder = (Folder) parent;
+				folder.createProjectFromXML(jobName, jobStream).save();
+			} else {
+				activeInstance.createProjectFromXML(jobName, jobStream).save();
 			}
-		} else {
+
+			logger.info("Created job " + jobName + " from BuildConfig " + NamespaceName.create(buildConfig)
+					+ " with revision: " + buildConfig.getMetadata().getResourceVersion());
+		} catch (IllegalArgumentException e) {
+			// see
+			// https://github.com/openshift/jenkins-sync-plugin/issues/117,
+			// jenkins might reload existing jobs on
+			// startup between the
+			// newJob check above and when we make
+			// the createProjectFromXML call; if so,
+			// retry as an update
 			updateJob(job, jobStream, existingBuildRunPolicy, buildConfigProjectProperty);
 			logger.info("Updated job " + jobName + " from BuildConfig " + NamespaceName.create(buildConfig)
 					+ " with revision: " + buildConfig.getMetadata().getResourceVersion());
@@ -163,16 +271,10 @@ public class JobProcessor extends NotReallyRoleSensitiveCallable<Void, Exception
 			BuildConfigProjectProperty buildConfigProjectProperty) throws IOException {
 		if (buildConfigProjectProperty != null) {
 			existingBuildRunPolicy = buildConfigProjectProperty.getBuildRunPolicy();
-			long updatedBCResourceVersion = parseResourceVersion(buildConfig);
-			long oldBCResourceVersion = parseResourceVersion(buildConfigProjectProperty.getResourceVersion());
-			BuildConfigProjectProperty newProperty = new BuildConfigProjectProperty(buildConfig);
-			if (updatedBCResourceVersion <= oldBCResourceVersion
-					&& newProperty.getUid().equals(buildConfigProjectProperty.getUid())
-					&& newProperty.getNamespace().equals(buildConfigProjectProperty.getNamespace())
-					&& newProperty.getName().equals(buildConfigProjectProperty.getName())
-					&& newProperty.getBuildRunPolicy().equals(buildConfigProjectProperty.getBuildRunPolicy())) {
+			if (isCurrent(buildConfigProjectProperty)) {
 				return null;
 			}
+			BuildConfigProjectProperty newProperty = new BuildConfigProjectProperty(buildConfig);
 			buildConfigProjectProperty.setUid(newProperty.getUid());
 			buildConfigProjectProperty.setNamespace(newProperty.getNamespace());
 			buildConfigProjectProperty.setName(newProperty.getName());
@@ -32,12 +32,16 @@ import io.fabric8.kubernetes.api.model.ReplicationControllerStatus;
 import io.fabric8.kubernetes.api.model.Service;
 import io.fabric8.kubernetes.api.model.ServiceSpec;
 import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.KubernetesClientException;
 import io.fabric8.kubernetes.client.Version;
+import io.fabric8.kubernetes.client.dsl.base.OperationSupport;
 import io.fabric8.openshift.api.model.Build;
 import io.fabric8.openshift.api.model.BuildConfig;
 import io.fabric8.openshift.api.model.BuildConfigSpec;
+import io.fabric8.openshift.api.model.BuildFluent;
 import io.fabric8.openshift.api.model.BuildSource;
 import io.fabric8.openshift.api.model.BuildStatus;
+import io.fabric8.openshift.api.model.DoneableBuild;
 import io.fabric8.openshift.api.model.GitBuildSource;
 import io.fabric8.openshift.api.model.Route;
 import io.fabric8.openshift.api.model.RouteList;
@@ -46,6 +50,11 @@ import io.fabric8.openshift.client.DefaultOpenShiftClient;
 import io.fabric8.openshift.client.OpenShiftClient;
 import io.fabric8.openshift.client.OpenShiftConfigBuilder;
 import jenkins.model.Jenkins;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.tools.ant.filters.StringInputStream;
@@ -59,12 +68,16 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -81,7 +94,8 @@ public class OpenShiftUtils {
     private final static Logger logger = Logger.getLogger(OpenShiftUtils.class
             .getName());
 
-    private static OpenShiftClient openShiftClient;
+    // written under the class lock, read without it
+    private static volatile OpenShiftClient openShiftClient;
     private static String jenkinsPodNamespace = null;
     
     static {
@@ -122,6 +136,16 @@ public class OpenShiftUtils {
     private static final DateTimeFormatter dateFormatter = ISODateTimeFormat
             .dateTimeNoMillis();
 
+    private static final MediaType MERGE_PATCH = MediaType.parse("application/merge-patch+json");
+    // shared by everything that writes JSON for the API server, an
+    // ObjectMapper is thread safe once configured
+    static final ObjectMapper jsonMapper = new ObjectMapper();
+
+    // the Jenkins URL inferred from the route or service of each namespace;
+    // routes are listed again once the TTL has passed
+    private static final long JENKINS_URL_TTL_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final ConcurrentHashMap<String, CachedURL> jenkinsURLs = new ConcurrentHashMap<String, CachedURL>();
+
     /**
      * Initializes an {@link OpenShiftClient}
      *
@@ -145,21 +169,24 @@ public class OpenShiftUtils {
         defClient.getHttpClient().dispatcher().setMaxRequests(100);
     }
 
-    public synchronized static OpenShiftClient getOpenShiftClient() {
+    public static OpenShiftClient getOpenShiftClient() {
         return openShiftClient;
     }
 
     // Get the current OpenShiftClient and configure to use the current Oauth
     // token.
-    public synchronized static OpenShiftClient getAuthenticatedOpenShiftClient() {
-        if (openShiftClient != null) {
+    public static OpenShiftClient getAuthenticatedOpenShiftClient() {
+        OpenShiftClient client = openShiftClient;
+        if (client != null) {
             String token = CredentialsUtils.getCurrentToken();
-            if (token.length() > 0) {
-                openShiftClient.getConfiguration().setOauthToken(token);
+            // the token rarely changes, so only touch the shared
+            // configuration when it does
+            if (token.length() > 0 && !token.equals(client.getConfiguration().getOauthToken())) {
+                client.getConfiguration().setOauthToken(token);
             }
         }
 
-        return openShiftClient;
+        return client;
     }
 
     public synchronized static void shutdownOpenShiftClient() {
@@ -392,6 +419,13 @@ public class OpenShiftUtils {
      */
     public static String getExternalServiceUrl(OpenShiftClient openShiftClient,
             String defaultProtocolText, String namespace, String serviceName) {
+        return getExternalServiceUrl(openShiftClient, defaultProtocolText, namespace, serviceName, false);
+    }
+
+    // with nullOnFailure, returns null instead of a fallback when a lookup
+    // failed, so a URL is only cached when the lookups actually answered
+    private static String getExternalServiceUrl(OpenShiftClient openShiftClient,
+            String defaultProtocolText, String namespace, String serviceName, boolean nullOnFailure) {
         if (namespace != null && serviceName != null) {
             try {
                 RouteList routes = openShiftClient.routes()
@@ -416,6 +450,9 @@ public class OpenShiftUtils {
             } catch (Exception e) {
                 logger.log(Level.WARNING, "Could not find Route for service "
                         + namespace + "/" + serviceName + ". " + e, e);
+                if (nullOnFailure) {
+                    return null;
+                }
             }
             // lets try the portalIP instead
             try {
@@ -433,6 +470,9 @@ public class OpenShiftUtils {
             } catch (Exception e) {
                 logger.log(Level.WARNING, "Could not find Route for service "
                         + namespace + "/" + serviceName + ". " + e, e);
+                if (nullOnFailure) {
+                    return null;
+                }
             }
         }
 
@@ -461,8 +501,40 @@ public class OpenShiftUtils {
         // the service/route
         // TODO we will eventually make the service name configurable, with the
         // default of "jenkins"
-        return getExternalServiceUrl(openShiftClient, "http://", namespace,
-                "jenkins");
+        if (namespace == null) {
+            return getExternalServiceUrl(openShiftClient, "http://", namespace,
+                    "jenkins");
+        }
+        long now = System.currentTimeMillis();
+        CachedURL cached = jenkinsURLs.get(namespace);
+        if (cached == null || now > cached.expires) {
+            String url = getExternalServiceUrl(openShiftClient, "http://", namespace, "jenkins", true);
+            if (url == null) {
+                // a lookup failed rather than found nothing; not cached, so
+                // the next call looks again
+                return "http://jenkins";
+            }
+            cached = new CachedURL(url, now + JENKINS_URL_TTL_MS);
+            jenkinsURLs.put(namespace, cached);
+        }
+        return cached.url;
+    }
+
+    /**
+     * Forgets the Jenkins URLs inferred from routes and services
+     */
+    static void invalidateJenkinsURLs() {
+        jenkinsURLs.clear();
+    }
+
+    private static final class CachedURL {
+        private final String url;
+        private final long expires;
+
+        private CachedURL(String url, long expires) {
+            this.url = url;
+            this.expires = expires;
+        }
     }
 
     public static String getNamespacefromPodInputs() {
@@ -505,10 +577,106 @@ public class OpenShiftUtils {
         logger.log(FINE, "setting build to {0} in namespace {1}/{2}",
                 new Object[] { phase, build.getMetadata().getNamespace(),
                         build.getMetadata().getName() });
-        getAuthenticatedOpenShiftClient().builds()
-                .inNamespace(build.getMetadata().getNamespace())
-                .withName(build.getMetadata().getName()).edit().editStatus()
-                .withPhase(phase).endStatus().done();
+        Map<String, String> status = new HashMap<String, String>();
+        status.put("phase", phase);
+        patchBuild(build.getMetadata().getNamespace(), build.getMetadata().getName(), null, status);
+    }
+
+    /**
+     * Sends a JSON merge patch for a {@link Build}, so only the given
+     * annotations and status fields go over the wire (no read of the Build
+     * first); the patch carries no resourceVersion, so it applies over
+     * whatever the Build currently holds and cannot conflict
+     *
+     * @param namespace
+     *            the namespace of the build
+     * @param name
+     *            the name of the build
+     * @param annotations
+     *            the annotations to set, entries with a null value are left
+     *            untouched; may be null
+     * @param status
+     *            the status fields (phase, startTimestamp,
+     *            completionTimestamp) to set, entries
+     *            with a null value are left untouched; may be null
+     */
+    public static void patchBuild(String namespace, String name, Map<String, String> annotations,
+            Map<String, String> status) {
+        Map<String, Object> patch = new HashMap<String, Object>();
+        Map<String, String> setAnnotations = withoutNullValues(annotations);
+        if (!setAnnotations.isEmpty()) {
+            patch.put("metadata", Collections.singletonMap("annotations", setAnnotations));
+        }
+        Map<String, String> setStatus = withoutNullValues(status);
+        if (!setStatus.isEmpty()) {
+            patch.put("status", setStatus);
+        }
+        if (patch.isEmpty()) {
+            return;
+        }
+
+        OpenShiftClient client = getAuthenticatedOpenShiftClient();
+        Object operation = client.builds().inNamespace(namespace).withName(name);
+        if (!(operation instanceof OperationSupport) || !(client instanceof DefaultOpenShiftClient)) {
+            // not a client we can send a raw request through
+            editBuild(client, namespace, name, setAnnotations, setStatus);
+            return;
+        }
+        Request request;
+        try {
+            URL url = ((OperationSupport) operation).getResourceUrl();
+            request = new Request.Builder().url(url)
+                    .patch(RequestBody.create(MERGE_PATCH, jsonMapper.writeValueAsBytes(patch))).build();
+        } catch (IOException e) {
+            throw KubernetesClientException.launderThrowable(e);
+        }
+        OkHttpClient httpClient = ((DefaultOpenShiftClient) client).getHttpClient();
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                String message = "Failure executing: PATCH at: " + request.url() + ". Message: "
+                        + (response.body() != null ? response.body().string() : response.message());
+                throw new KubernetesClientException(message, response.code(), null);
+            }
+        } catch (IOException e) {
+            throw KubernetesClientException.launderThrowable(e);
+        }
+    }
+
+    // the read-modify-write fallback of patchBuild
+    private static void editBuild(OpenShiftClient client, String namespace, String name,
+            Map<String, String> annotations, Map<String, String> status) {
+        DoneableBuild builder = client.builds().inNamespace(namespace).withName(name).edit();
+        if (!annotations.isEmpty()) {
+            builder.editMetadata().addToAnnotations(annotations).endMetadata();
+        }
+        if (!status.isEmpty()) {
+            BuildFluent.StatusNested<DoneableBuild> statusBuilder = builder.editStatus();
+            for (Map.Entry<String, String> entry : status.entrySet()) {
+                if ("phase".equals(entry.getKey())) {
+                    statusBuilder.withPhase(entry.getValue());
+                } else if ("startTimestamp".equals(entry.getKey())) {
+                    statusBuilder.withStartTimestamp(entry.getValue());
+                } else if ("completionTimestamp".equals(entry.getKey())) {
+                    statusBuilder.withCompletionTimestamp(entry.getValue());
+                } else {
+                    throw new IllegalArgumentException("unsupported build status field " + entry.getKey());
+                }
+            }
+            statusBuilder.endStatus();
+        }
+        builder.done();
+    }
+
+    private static Map<String, String> withoutNullValues(Map<String, String> map) {
+        Map<String, String> result = new HashMap<String, String>();
+        if (map != null) {
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                if (entry.getValue() != null) {
+                    result.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return result;
     }
 
     /**
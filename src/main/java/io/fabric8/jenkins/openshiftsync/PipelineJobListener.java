@@ -100,8 +100,16 @@ public class PipelineJobListener extends ItemListener {
         upsertItem(item);
     }
 
+    @Override
+    public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+        super.onLocationChanged(item, oldFullName, newFullName);
+        // the runs are found again, and indexed, under the new name
+        BuildToRunMap.onJobRemoved(oldFullName);
+    }
+
     @Override
     public void onDeleted(Item item) {
+        BuildToRunMap.onJobRemoved(item.getFullName());
         if (!GlobalPluginConfiguration.get().isEnabled())
             return;
         reconfigure();
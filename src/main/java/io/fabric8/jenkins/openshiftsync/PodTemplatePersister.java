@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2017 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.fabric8.jenkins.openshiftsync;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.csanchez.jenkins.plugins.kubernetes.KubernetesCloud;
+import org.csanchez.jenkins.plugins.kubernetes.PodTemplate;
+
+import hudson.init.Terminator;
+import hudson.triggers.SafeTimerTask;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+/**
+ * Write-behind persistence of the Jenkins configuration for pod template
+ * changes. Adding or removing a pod template only marks the configuration
+ * dirty; it is saved once no further change has arrived for a quiet period
+ * (or once changes have kept arriving for the maximum delay), so a startup
+ * relist touching hundreds of templates results in a single write of
+ * config.xml.
+ */
+public class PodTemplatePersister {
+
+    private static final Logger LOGGER = Logger.getLogger(PodTemplatePersister.class.getName());
+
+    private static final long QUIET_PERIOD_MS = 2000;
+    private static final long MAX_DELAY_MS = 30000;
+
+    private static boolean dirty;
+    private static boolean scheduled;
+    private static long firstChange;
+    private static long lastChange;
+
+    private PodTemplatePersister() {
+    }
+
+    /**
+     * Records that the pod templates of the cloud changed and makes sure a
+     * save is scheduled
+     */
+    static synchronized void markDirty() {
+        long now = System.currentTimeMillis();
+        if (!dirty) {
+            dirty = true;
+            firstChange = now;
+        }
+        lastChange = now;
+        if (!scheduled) {
+            scheduled = true;
+            schedule(QUIET_PERIOD_MS);
+        }
+    }
+
+    private static void schedule(long delayMs) {
+        Timer.get().schedule(new SafeTimerTask() {
+            @Override
+            protected void doRun() throws Exception {
+                long delay;
+                synchronized (PodTemplatePersister.class) {
+                    long now = System.currentTimeMillis();
+                    long quietFor = now - lastChange;
+                    long pendingFor = now - firstChange;
+                    if (dirty && quietFor < QUIET_PERIOD_MS && pendingFor < MAX_DELAY_MS) {
+                        delay = Math.min(QUIET_PERIOD_MS - quietFor, MAX_DELAY_MS - pendingFor);
+                    } else {
+                        delay = 0;
+                        scheduled = false;
+                    }
+                }
+                if (delay > 0) {
+                    schedule(delay);
+                } else {
+                    flush();
+                }
+            }
+        }, delayMs, MILLISECONDS);
+    }
+
+    /**
+     * Saves the Jenkins configuration now if pod template changes are pending
+     */
+    static void flush() {
+        synchronized (PodTemplatePersister.class) {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+        }
+        // pedantic mvn:findbugs
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return;
+        }
+        // the pod template lock is only held to give the cloud a list of its
+        // own to write out; changes made while it is saved go to a new list
+        // (see JenkinsUtils.addPodTemplate), so handlers do not wait on the
+        // disk write
+        KubernetesCloud kubeCloud = JenkinsUtils.getKubernetesCloud();
+        if (kubeCloud != null) {
+            synchronized (JenkinsUtils.podTemplateLock) {
+                JenkinsUtils.setPodTemplates(kubeCloud, new ArrayList<PodTemplate>(kubeCloud.getTemplates()));
+            }
+        }
+        try {
+            jenkins.save();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "failed to save pod template changes", e);
+        }
+    }
+
+    @Terminator
+    public static void flushOnShutdown() {
+        LOGGER.fine("saving pending pod template changes before shutdown");
+        flush();
+    }
+}
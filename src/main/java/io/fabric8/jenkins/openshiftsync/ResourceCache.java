@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2017 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.fabric8.jenkins.openshiftsync;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.ObjectMeta;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * In-memory store of the API objects a watcher has seen, indexed by namespace
+ * and name. Watch deltas and relists are applied against this store so only
+ * real adds, updates and deletes are handed on to the watcher.
+ */
+public class ResourceCache<T extends HasMetadata> {
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, T>> store = new ConcurrentHashMap<>();
+
+    private ConcurrentHashMap<String, T> namespaceStore(String namespace) {
+        String key = namespace == null ? "" : namespace;
+        ConcurrentHashMap<String, T> items = store.get(key);
+        if (items == null) {
+            ConcurrentHashMap<String, T> newItems = new ConcurrentHashMap<>();
+            items = store.putIfAbsent(key, newItems);
+            if (items == null) {
+                items = newItems;
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Stores the given object
+     *
+     * @param obj
+     *            the object received from a list or watch
+     * @return true if the object was not known or differs (uid or resource
+     *         version) from the cached copy
+     */
+    public boolean upsert(T obj) {
+        ObjectMeta meta = obj.getMetadata();
+        if (meta == null || meta.getName() == null) {
+            return true;
+        }
+        T old = namespaceStore(meta.getNamespace()).put(meta.getName(), obj);
+        if (old == null || old.getMetadata() == null) {
+            return true;
+        }
+        return !StringUtils.equals(old.getMetadata().getUid(), meta.getUid())
+                || !StringUtils.equals(old.getMetadata().getResourceVersion(), meta.getResourceVersion());
+    }
+
+    /**
+     * Removes the given object, provided the cached copy is the same instance
+     * (by uid) of the named object
+     *
+     * @param obj
+     *            the deleted object
+     * @return the cached copy that was removed, or null
+     */
+    public T remove(T obj) {
+        ObjectMeta meta = obj.getMetadata();
+        if (meta == null || meta.getName() == null) {
+            return null;
+        }
+        Map<String, T> items = namespaceStore(meta.getNamespace());
+        T old = items.get(meta.getName());
+        if (old != null && (meta.getUid() == null || StringUtils.equals(old.getMetadata().getUid(), meta.getUid()))) {
+            items.remove(meta.getName(), old);
+            return old;
+        }
+        return null;
+    }
+
+    public T get(String namespace, String name) {
+        if (name == null) {
+            return null;
+        }
+        return namespaceStore(namespace).get(name);
+    }
+
+    public List<T> list(String namespace) {
+        return new ArrayList<T>(namespaceStore(namespace).values());
+    }
+
+    /**
+     * Drops every cached object of the namespace that is not part of a fresh
+     * (and complete) list of that namespace
+     *
+     * @param namespace
+     *            the namespace that was listed
+     * @param listedUids
+     *            the uids of the objects returned by the list
+     * @return the cached objects which no longer exist
+     */
+    public List<T> retainOnly(String namespace, Set<String> listedUids) {
+        List<T> removed = new ArrayList<T>();
+        Iterator<T> iter = namespaceStore(namespace).values().iterator();
+        while (iter.hasNext()) {
+            T cached = iter.next();
+            if (!listedUids.contains(cached.getMetadata().getUid())) {
+                iter.remove();
+                removed.add(cached);
+            }
+        }
+        return removed;
+    }
+
+    public void clear() {
+        store.clear();
+    }
+}
@@ -19,12 +19,10 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.triggers.SafeTimerTask;
 import io.fabric8.kubernetes.api.model.ObjectMeta;
 import io.fabric8.kubernetes.api.model.Secret;
-import io.fabric8.kubernetes.api.model.SecretList;
 import io.fabric8.kubernetes.client.Watcher.Action;
 
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static io.fabric8.jenkins.openshiftsync.OpenShiftUtils.getAuthenticatedOpenShiftClient;
@@ -59,24 +57,37 @@ public class SecretWatcher extends BaseWatcher {
                     return;
                 }
                 for (String namespace : namespaces) {
-                    SecretList secrets = null;
-                    try {
-                        logger.fine("listing Secrets resources");
-                        secrets = getAuthenticatedOpenShiftClient().secrets()
-                                .inNamespace(namespace)
-                                .withLabel(Constants.OPENSHIFT_LABELS_SECRET_CREDENTIAL_SYNC, Constants.VALUE_SECRET_SYNC).list();
-                        onInitialSecrets(secrets);
-                        logger.fine("handled Secrets resources");
-                    } catch (Exception e) {
-                        logger.log(SEVERE, "Failed to load Secrets: " + e, e);
+                    if (!needsRelist(namespace)) {
+                        logger.fine("Secret watch for namespace " + namespace + " is active, skipping relist");
+                        continue;
+                    }
+                    String listResourceVersion = getResumeVersion(namespace);
+                    if (listResourceVersion != null) {
+                        logger.info("resuming Secret watch for namespace " + namespace + " from checkpointed resource version " + listResourceVersion);
+                    } else {
+                        try {
+                            logger.fine("listing Secrets resources");
+                            listResourceVersion = listNamespace(namespace,
+                                    getAuthenticatedOpenShiftClient().secrets()
+                                    .inNamespace(namespace)
+                                    .withLabel(Constants.OPENSHIFT_LABELS_SECRET_CREDENTIAL_SYNC, Constants.VALUE_SECRET_SYNC), true,
+                                    new PageHandler<Secret>() {
+                                        @Override
+                                        public void onPage(List<Secret> items) {
+                                            onInitialSecrets(items);
+                                        }
+                                    });
+                            logger.fine("handled Secrets resources");
+                        } catch (Exception e) {
+                            logger.log(SEVERE, "Failed to load Secrets: " + e, e);
+                        }
                     }
                     try {
                         String resourceVersion = "0";
-                        if (secrets == null) {
+                        if (listResourceVersion == null) {
                             logger.warning("Unable to get secret list; impacts resource version used for watch");
                         } else {
-                            resourceVersion = secrets.getMetadata()
-                                    .getResourceVersion();
+                            resourceVersion = listResourceVersion;
                         }
                         if (watches.get(namespace) == null) {
                             logger.info("creating Secret watch for namespace "
@@ -94,6 +105,7 @@ public class SecretWatcher extends BaseWatcher {
                                                             namespace)));
                         }
                     } catch (Exception e) {
+                        onWatchFailure(namespace, e);
                         logger.log(SEVERE, "Failed to load Secrets: " + e, e);
                     }
                 }
@@ -102,18 +114,25 @@ public class SecretWatcher extends BaseWatcher {
         };
     }
 
+    /**
+     * Synced credentials are kept on disk, so after a restart the watch picks
+     * up the changes made since the last handled event instead of saving
+     * every secret to the credential store again.
+     */
+    @Override
+    protected boolean resumesWatches() {
+        return true;
+    }
+
     public void start() {
         // lets process the initial state
         super.start();
         logger.info("Now handling startup secrets!!");
     }
 
-    private void onInitialSecrets(SecretList secrets) {
-        if (secrets == null)
-            return;
+    private void onInitialSecrets(List<Secret> items) {
         if (trackedSecrets == null)
             trackedSecrets = new ConcurrentHashMap<String, String>();
-        List<Secret> items = secrets.getItems();
         if (items != null) {
             for (Secret secret : items) {
                 try {
@@ -150,7 +169,12 @@ public class SecretWatcher extends BaseWatcher {
                 break;
             }
         } catch (Exception e) {
-            logger.log(Level.WARNING, "Caught: " + e, e);
+            // logged by the EventDispatcher; the failure keeps the watch
+            // checkpoint from moving past this event
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new RuntimeException(e);
         }
     }
     @Override
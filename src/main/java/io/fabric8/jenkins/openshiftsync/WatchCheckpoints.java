@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2017 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.fabric8.jenkins.openshiftsync;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.XmlFile;
+import hudson.init.Terminator;
+import hudson.triggers.SafeTimerTask;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+/**
+ * The resource version up to which the events of each watched type and
+ * namespace have been handled, kept under JENKINS_HOME so that after a restart
+ * a watch can resume from where it stopped instead of listing and processing
+ * the whole namespace again. Each checkpoint carries a digest of the
+ * configuration it was recorded under and is ignored once that changes.
+ */
+public class WatchCheckpoints {
+
+    private static final Logger LOGGER = Logger.getLogger(WatchCheckpoints.class.getName());
+
+    private static final long SAVE_DELAY_MS = 5000;
+
+    // "type/namespace" -> checkpoint
+    private static HashMap<String, Checkpoint> checkpoints;
+    private static boolean dirty;
+    private static boolean scheduled;
+
+    private WatchCheckpoints() {
+    }
+
+    /**
+     * Returns the checkpointed resource version of a type and namespace, or
+     * null if there is none recorded under the given configuration digest
+     */
+    static synchronized String get(String type, String namespace, String digest) {
+        Checkpoint checkpoint = load().get(key(type, namespace));
+        if (checkpoint == null || !checkpoint.digest.equals(digest)) {
+            return null;
+        }
+        return checkpoint.resourceVersion;
+    }
+
+    /**
+     * Records that every event of a type and namespace up to the given
+     * resource version has been handled
+     */
+    static synchronized void put(String type, String namespace, String digest, String resourceVersion) {
+        Checkpoint checkpoint = load().get(key(type, namespace));
+        if (checkpoint != null && checkpoint.digest.equals(digest)
+                && checkpoint.resourceVersion.equals(resourceVersion)) {
+            return;
+        }
+        checkpoints.put(key(type, namespace), new Checkpoint(resourceVersion, digest));
+        markDirty();
+    }
+
+    /**
+     * Drops the checkpoint of a type and namespace, so its next watch starts
+     * with a full list
+     */
+    static synchronized void remove(String type, String namespace) {
+        if (load().remove(key(type, namespace)) != null) {
+            markDirty();
+        }
+    }
+
+    private static String key(String type, String namespace) {
+        return type + "/" + namespace;
+    }
+
+    private static void markDirty() {
+        dirty = true;
+        if (!scheduled) {
+            scheduled = true;
+            Timer.get().schedule(new SafeTimerTask() {
+                @Override
+                protected void doRun() throws Exception {
+                    synchronized (WatchCheckpoints.class) {
+                        scheduled = false;
+                    }
+                    save();
+                }
+            }, SAVE_DELAY_MS, MILLISECONDS);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HashMap<String, Checkpoint> load() {
+        if (checkpoints == null) {
+            checkpoints = new HashMap<String, Checkpoint>();
+            XmlFile file = getConfigFile();
+            if (file != null && file.exists()) {
+                try {
+                    checkpoints.putAll((HashMap<String, Checkpoint>) file.read());
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Failed to read watch checkpoints from " + file
+                            + ", all namespaces will be listed again", e);
+                }
+            }
+        }
+        return checkpoints;
+    }
+
+    /**
+     * Writes the checkpoints out if they changed since the last save
+     */
+    static void save() {
+        HashMap<String, Checkpoint> copy;
+        synchronized (WatchCheckpoints.class) {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            copy = new HashMap<String, Checkpoint>(checkpoints);
+        }
+        XmlFile file = getConfigFile();
+        if (file == null) {
+            return;
+        }
+        try {
+            file.write(copy);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save watch checkpoints to " + file, e);
+        }
+    }
+
+    private static XmlFile getConfigFile() {
+        // pedantic mvn:findbugs
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return null;
+        }
+        return new XmlFile(Jenkins.XSTREAM2, new File(jenkins.getRootDir(), WatchCheckpoints.class.getName() + ".xml"));
+    }
+
+    @Terminator
+    public static void saveOnShutdown() {
+        save();
+    }
+
+    private static final class Checkpoint {
+        private final String resourceVersion;
+        private final String digest;
+
+        private Checkpoint(String resourceVersion, String digest) {
+            this.resourceVersion = resourceVersion;
+            this.digest = digest;
+        }
+    }
+}
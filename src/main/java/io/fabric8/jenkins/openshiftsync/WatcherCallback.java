@@ -15,10 +15,11 @@
  */
 package io.fabric8.jenkins.openshiftsync;
 
+import io.fabric8.kubernetes.api.model.HasMetadata;
 import io.fabric8.kubernetes.client.KubernetesClientException;
 import io.fabric8.kubernetes.client.Watcher;
 
-public class WatcherCallback<T> implements Watcher<T> {
+public class WatcherCallback<T extends HasMetadata> implements Watcher<T> {
     
     private final BaseWatcher watcher;
     private final String namespace;
@@ -31,7 +32,7 @@ public class WatcherCallback<T> implements Watcher<T> {
 
     @Override
     public void eventReceived(io.fabric8.kubernetes.client.Watcher.Action action, T resource) {
-        watcher.eventReceived(action, resource);
+        watcher.onWatchEvent(action, resource);
     }
 
     @Override
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2017 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.fabric8.jenkins.openshiftsync;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventDispatcherTest {
+
+  @Test
+  public void testEventsOfOneKeyRunInOrder() throws Exception {
+    EventDispatcher dispatcher = new EventDispatcher(4, 100);
+    final List<Integer> handled = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch done = new CountDownLatch(20);
+    for (int i = 0; i < 20; i++) {
+      final int n = i;
+      dispatcher.dispatch("uid", new Runnable() {
+        @Override
+        public void run() {
+          handled.add(n);
+          done.countDown();
+        }
+      });
+    }
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    List<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < 20; i++) {
+      expected.add(i);
+    }
+    assertEquals(expected, handled);
+  }
+
+  @Test
+  public void testSlowKeyDoesNotBlockOtherKeys() throws Exception {
+    EventDispatcher dispatcher = new EventDispatcher(2, 100);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch otherDone = new CountDownLatch(1);
+    final List<String> handled = Collections.synchronizedList(new ArrayList<String>());
+    dispatcher.dispatch("slow", new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        handled.add("slow");
+      }
+    });
+    dispatcher.dispatch("other", new Runnable() {
+      @Override
+      public void run() {
+        handled.add("other");
+        otherDone.countDown();
+      }
+    });
+    assertTrue(otherDone.await(10, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("other"), handled);
+    release.countDown();
+  }
+
+  @Test
+  public void testWaitingModifiedEventsAreCoalesced() throws Exception {
+    EventDispatcher dispatcher = new EventDispatcher(1, 100);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+    final List<String> handled = Collections.synchronizedList(new ArrayList<String>());
+    dispatcher.dispatch("uid", "uid", false, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        handled.add("added");
+      }
+    });
+    for (final String version : Arrays.asList("1", "2", "3")) {
+      dispatcher.dispatch("uid", "uid", true, new Runnable() {
+        @Override
+        public void run() {
+          handled.add("modified " + version);
+          done.countDown();
+        }
+      });
+    }
+    release.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("added", "modified 3"), handled);
+    assertEquals(2, dispatcher.getCoalesced());
+  }
+
+  @Test
+  public void testCoalescingKeepsOrderOfOtherObjectsOnSameKey() throws Exception {
+    EventDispatcher dispatcher = new EventDispatcher(1, 100);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(3);
+    final List<String> handled = Collections.synchronizedList(new ArrayList<String>());
+    dispatcher.dispatch("ns/bc", "a", false, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        handled.add("a added");
+      }
+    });
+    for (final String event : Arrays.asList("a 1", "b 1", "a 2", "a 3")) {
+      dispatcher.dispatch("ns/bc", event.substring(0, 1), true, new Runnable() {
+        @Override
+        public void run() {
+          handled.add("modified " + event);
+          done.countDown();
+        }
+      });
+    }
+    release.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    // a 2 must not jump ahead of b 1; a 3 replaces a 2 at the tail
+    assertEquals(Arrays.asList("a added", "modified a 1", "modified b 1", "modified a 3"), handled);
+    assertEquals(1, dispatcher.getCoalesced());
+  }
+}
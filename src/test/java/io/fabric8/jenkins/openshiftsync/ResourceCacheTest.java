@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2017 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.fabric8.jenkins.openshiftsync;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ResourceCacheTest {
+
+  private static ConfigMap configMap(String namespace, String name, String uid, String resourceVersion) {
+    return new ConfigMapBuilder().withNewMetadata().withNamespace(namespace).withName(name).withUid(uid)
+        .withResourceVersion(resourceVersion).endMetadata().build();
+  }
+
+  @Test
+  public void testUpsertOnlyReportsChanges() {
+    ResourceCache<ConfigMap> cache = new ResourceCache<ConfigMap>();
+    assertTrue(cache.upsert(configMap("ns", "a", "uid-1", "1")));
+    assertFalse(cache.upsert(configMap("ns", "a", "uid-1", "1")));
+    assertTrue(cache.upsert(configMap("ns", "a", "uid-1", "2")));
+    // recreated under the same name
+    assertTrue(cache.upsert(configMap("ns", "a", "uid-2", "2")));
+    assertEquals("uid-2", cache.get("ns", "a").getMetadata().getUid());
+    assertNull(cache.get("other", "a"));
+  }
+
+  @Test
+  public void testRemoveIgnoresOtherInstanceOfSameName() {
+    ResourceCache<ConfigMap> cache = new ResourceCache<ConfigMap>();
+    ConfigMap current = configMap("ns", "a", "uid-2", "5");
+    cache.upsert(current);
+    assertNull(cache.remove(configMap("ns", "a", "uid-1", "3")));
+    assertSame(current, cache.get("ns", "a"));
+    assertSame(current, cache.remove(configMap("ns", "a", "uid-2", "6")));
+    assertNull(cache.get("ns", "a"));
+  }
+
+  @Test
+  public void testRetainOnlyReturnsObjectsMissingFromList() {
+    ResourceCache<ConfigMap> cache = new ResourceCache<ConfigMap>();
+    cache.upsert(configMap("ns", "a", "uid-a", "1"));
+    cache.upsert(configMap("ns", "b", "uid-b", "1"));
+    cache.upsert(configMap("other", "c", "uid-c", "1"));
+    List<ConfigMap> gone = cache.retainOnly("ns", new HashSet<String>(Arrays.asList("uid-a")));
+    assertEquals(1, gone.size());
+    assertEquals("b", gone.get(0).getMetadata().getName());
+    assertEquals(1, cache.list("ns").size());
+    // other namespaces are left alone
+    assertEquals(1, cache.list("other").size());
+  }
+}